@@ -15,6 +15,9 @@ public class Constants {
 
     public static final String MEMCACHE_ANNOUNCEMENTS_KEY = "RECENT_ANNOUNCEMENTS";
     public static final String MEMCACHE_FEATURED_SPEAKER_KEY = "FEATURED_SPEAKER";
+
+    //announcement names
+    public static final String ANNOUNCEMENT_NEARLY_SOLD_OUT = "nearlySoldOut";
     
     //email Types
     public static final String NEW_CONFERENCE = "newConference";
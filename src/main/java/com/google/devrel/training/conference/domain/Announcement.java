@@ -20,6 +20,17 @@ public class Announcement {
      * **********************************************************************
      */
     private String message;
+
+    /**
+     * False when the client already holds this version, in which case message
+     * is left out.
+     */
+    private boolean modified = true;
+
+    /**
+     * Version of the message, clients send it back to poll for changes.
+     */
+    private String version;
     
    /* **********************************************************************
     * CONSTRUCTORS
@@ -34,6 +45,12 @@ public class Announcement {
     {
         this.message = message;
     }
+
+    public Announcement(String message, String version)
+    {
+        this.message = message;
+        this.version = version;
+    }
     
     /* **********************************************************************
      * SETTERS AND GETTERS FOR ATTRIBUTES
@@ -43,6 +60,14 @@ public class Announcement {
     public String getMessage(){
         return this.message;
     }
+
+    public String getVersion(){
+        return this.version;
+    }
+
+    public boolean isModified(){
+        return this.modified;
+    }
     
     /* **********************************************************************
      * PRIVATE METHODS
@@ -53,7 +78,22 @@ public class Announcement {
      * PUBLIC METHODS
      * **********************************************************************
      */  
-     
-     
+
+    /**
+     * Returns this announcement, or a message-less "not modified" answer if
+     * the client already holds this version.
+     * 
+     * @param clientVersion
+     *            the version the client holds, may be null
+     * @return the announcement to send back
+     */
+    public Announcement unlessVersion(String clientVersion) {
+        if (version == null || !version.equals(clientVersion)) {
+            return this;
+        }
+        Announcement notModified = new Announcement(null, version);
+        notModified.modified = false;
+        return notModified;
+    }
 
 }
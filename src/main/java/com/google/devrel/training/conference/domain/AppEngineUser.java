@@ -1,11 +1,19 @@
 package com.google.devrel.training.conference.domain;
 
 import com.google.appengine.api.users.User;
+import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
 import com.googlecode.objectify.Key;
 
+import java.util.Locale;
+
+/**
+ * Directory entry mapping a user's e-mail address to the user, so a user can
+ * be resolved from an e-mail address with a single (memcache-fronted) get.
+ */
 @Entity
+@Cache
 public class AppEngineUser {
 
     /* **********************************************************************
@@ -22,22 +30,27 @@ public class AppEngineUser {
      * ATTRIBUTES
      * **********************************************************************
      */
-    
-    /* **********************************************************************
-     * CONSTRUCTORS
-     * **********************************************************************
+
+    /**
+     * The lower-cased e-mail address, used as the datastore key.
      */
     @Id
     private String email;
+
     private User   user;
 
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
     @SuppressWarnings("unused")
     private AppEngineUser() {
     }
 
     public AppEngineUser(User user) {
         this.user = user;
-        this.email = user.getEmail();
+        this.email = normalizeEmail(user.getEmail());
     }
     /* **********************************************************************
      * OVERRIDES
@@ -56,13 +69,44 @@ public class AppEngineUser {
         return user;
     }
 
+    /**
+     * Getter for the user id of user.
+     *
+     * @return the user id, which is also the id of the user's Profile.
+     */
+    public String getUserId() {
+        return user.getUserId();
+    }
+
     /* **********************************************************************
      * PRIVATE METHODS
      * **********************************************************************
      */
+
+    /**
+     * E-mail addresses are matched case-insensitively.
+     *
+     * @param email
+     *            the e-mail address
+     * @return the lower-cased e-mail address
+     */
+    private static String normalizeEmail(String email) {
+        return email.trim().toLowerCase(Locale.ENGLISH);
+    }
     
     /* **********************************************************************
      * PUBLIC METHODS
      * **********************************************************************
-     */  
+     */
+
+    /**
+     * Returns the key of the directory entry of an e-mail address.
+     *
+     * @param email
+     *            the e-mail address, in any case
+     * @return the key of its AppEngineUser
+     */
+    public static Key<AppEngineUser> keyOf(String email) {
+        return Key.create(AppEngineUser.class, normalizeEmail(email));
+    }
 }
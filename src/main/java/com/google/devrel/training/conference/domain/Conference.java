@@ -33,6 +33,12 @@ public class Conference {
      * CONSTANTS
      * **********************************************************************
      */
+
+    /**
+     * A conference with at most this many seats left, but not sold out, is
+     * nearly sold out.
+     */
+    public static final int NEARLY_SOLD_OUT_SEATS = 5;
     
     /* **********************************************************************
      * ENUMS
@@ -317,6 +323,38 @@ public class Conference {
     }
     
 
+    /**
+     * Derives the starting month from startDate, unless there is no
+     * startDate.
+     *
+     * @return true if the month changed.
+     */
+    public boolean updateMonth() {
+        if (this.startDate == null) {
+            return false;
+        }
+        // Getting the starting month for a composite query.
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(this.startDate);
+        // Calendar.MONTH is zero based, so adding 1.
+        int month = calendar.get(Calendar.MONTH) + 1;
+        if (month == this.month) {
+            return false;
+        }
+        this.month = month;
+        return true;
+    }
+
+    /**
+     * Returns whether the conference is nearly sold out.
+     *
+     * @return true if 1 to NEARLY_SOLD_OUT_SEATS seats are left.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public boolean isNearlySoldOut() {
+        return seatsAvailable > 0 && seatsAvailable <= NEARLY_SOLD_OUT_SEATS;
+    }
+
     /**
      * Returns organizer's display name.
      *
@@ -366,13 +404,7 @@ public class Conference {
         this.startDate = startDate == null ? null : new Date(startDate.getTime());
         Date endDate = conferenceForm.getEndDate();
         this.endDate = endDate == null ? null : new Date(endDate.getTime());
-        if (this.startDate != null) {
-            // Getting the starting month for a composite query.
-            Calendar calendar = Calendar.getInstance();
-            calendar.setTime(this.startDate);
-            // Calendar.MONTH is zero based, so adding 1.
-            this.month = calendar.get(Calendar.MONTH) + 1;
-        }
+        updateMonth();
         // Check maxAttendees value against the number of already allocated
         // seats.
         int seatsAllocated = maxAttendees - seatsAvailable;
@@ -0,0 +1,80 @@
+package com.google.devrel.training.conference.domain;
+
+import java.util.ArrayList;
+import java.util.Collection;
+
+/**
+ * Everything the home page shows, returned at once by getDashboard.
+ */
+public class Dashboard {
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * The active announcements, null if there is none.
+     */
+    private Announcement           announcement;
+
+    /**
+     * The conferences the user registered to, empty if not signed in.
+     */
+    private Collection<Conference> conferencesToAttend = new ArrayList<>(0);
+
+    /**
+     * The latest featured speaker, null if there is none.
+     */
+    private Announcement           featuredSpeaker;
+
+    /**
+     * The user's Profile, null if not signed in or not saved yet.
+     */
+    private Profile                profile;
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
+    /**
+     * Public constructor for Dashboard.
+     *
+     * @param announcement
+     *            the active announcements, may be null
+     * @param featuredSpeaker
+     *            the latest featured speaker, may be null
+     * @param profile
+     *            the user's Profile, may be null
+     * @param conferencesToAttend
+     *            the conferences the user registered to
+     */
+    public Dashboard(Announcement announcement, Announcement featuredSpeaker, Profile profile, Collection<Conference> conferencesToAttend) {
+        this.announcement = announcement;
+        this.featuredSpeaker = featuredSpeaker;
+        this.profile = profile;
+        this.conferencesToAttend = new ArrayList<>(conferencesToAttend);
+    }
+
+    /* **********************************************************************
+     * SETTERS AND GETTERS FOR ATTRIBUTES
+     * **********************************************************************
+     */
+
+    public Announcement getAnnouncement() {
+        return announcement;
+    }
+
+    public Collection<Conference> getConferencesToAttend() {
+        return conferencesToAttend;
+    }
+
+    public Announcement getFeaturedSpeaker() {
+        return featuredSpeaker;
+    }
+
+    public Profile getProfile() {
+        return profile;
+    }
+}
@@ -0,0 +1,125 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+
+import java.util.Date;
+
+/**
+ * A notification e-mail given up on, because its failure is permanent (e.g. an
+ * invalid address) or it failed too many times. It keeps what is needed to
+ * look into the failure and to enqueue the notification again.
+ */
+@Entity
+public class DeadLetterEmail {
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * Number of times the delivery was attempted.
+     */
+    private int    attempts;
+
+    /**
+     * The recipient.
+     */
+    private String email;
+
+    /**
+     * The type of the notification, Constants.NEW_CONFERENCE or
+     * Constants.NEW_SESSION.
+     */
+    private String emailType;
+
+    /**
+     * When the notification was given up on.
+     */
+    @Index
+    private Date   failed;
+
+    @Id
+    private Long   id;
+
+    /**
+     * Why the delivery failed.
+     */
+    private String reason;
+
+    /**
+     * The websafe key of the created entity, null for the notifications
+     * carrying their text.
+     */
+    private String websafeKey;
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
+    /**
+     * Just making the default constructor private.
+     */
+    @SuppressWarnings("unused")
+    private DeadLetterEmail() {
+    }
+
+    /**
+     * Records a notification given up on now.
+     *
+     * @param email
+     *            the recipient
+     * @param emailType
+     *            the type of the notification
+     * @param websafeKey
+     *            the websafe key of the created entity, may be null
+     * @param attempts
+     *            the number of delivery attempts
+     * @param reason
+     *            why the delivery failed
+     */
+    public DeadLetterEmail(String email, String emailType, String websafeKey, int attempts, String reason) {
+        this.attempts = attempts;
+        this.email = email;
+        this.emailType = emailType;
+        this.failed = new Date();
+        this.reason = reason;
+        this.websafeKey = websafeKey;
+    }
+
+    /* **********************************************************************
+     * SETTERS AND GETTERS FOR ATTRIBUTES
+     * **********************************************************************
+     */
+
+    public int getAttempts() {
+        return attempts;
+    }
+
+    public String getEmail() {
+        return email;
+    }
+
+    public String getEmailType() {
+        return emailType;
+    }
+
+    public Date getFailed() {
+        return failed == null ? null : new Date(failed.getTime());
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getReason() {
+        return reason;
+    }
+
+    public String getWebsafeKey() {
+        return websafeKey;
+    }
+}
@@ -0,0 +1,158 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * The featured speaker of a conference: a speaker having more than one session
+ * in it. There is at most one FeaturedSpeaker per Conference, child of it,
+ * with id ID. The entity is cached by Objectify, so reads are served from
+ * memcache and fall back to the datastore after an eviction. The latest
+ * featured speaker across conferences is the one most recently updated.
+ */
+@Entity
+@Cache
+public class FeaturedSpeaker {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    /**
+     * The id of the single FeaturedSpeaker child of a Conference.
+     */
+    public static final long ID = 1L;
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * Holds Conference key as the parent.
+     */
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    /**
+     * Name of the conference, at the time the speaker was featured.
+     */
+    private String          conferenceName;
+
+    @Id
+    private long            id = ID;
+
+    /**
+     * Names of the speaker's sessions in the conference.
+     */
+    private List<String>    sessionNames;
+
+    /**
+     * Name of the speaker.
+     */
+    private String          speaker;
+
+    /**
+     * When the speaker was featured, indexed to find the latest one.
+     */
+    @Index
+    private Date            updated;
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
+    /**
+     * Just making the default constructor private.
+     */
+    @SuppressWarnings("unused")
+    private FeaturedSpeaker() {
+    }
+
+    /**
+     * Public constructor for FeaturedSpeaker.
+     *
+     * @param conferenceKey
+     *            the key of the conference
+     * @param conferenceName
+     *            the name of the conference
+     * @param speaker
+     *            the name of the speaker
+     * @param sessionNames
+     *            the names of the speaker's sessions in the conference
+     */
+    public FeaturedSpeaker(Key<Conference> conferenceKey, String conferenceName, String speaker, List<String> sessionNames) {
+        this.conferenceKey = conferenceKey;
+        this.conferenceName = conferenceName;
+        this.speaker = speaker;
+        this.sessionNames = ImmutableList.copyOf(sessionNames);
+        this.updated = new Date();
+    }
+
+    /* **********************************************************************
+     * SETTERS AND GETTERS FOR ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * Getter for speaker.
+     *
+     * @return speaker.
+     */
+    public String getSpeaker() {
+        return speaker;
+    }
+
+    /**
+     * Getter for sessionNames.
+     *
+     * @return sessionNames.
+     */
+    public List<String> getSessionNames() {
+        return sessionNames == null ? ImmutableList.<String> of() : ImmutableList.copyOf(sessionNames);
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the key of the featured speaker of a conference.
+     *
+     * @param conferenceKey
+     *            the key of the conference
+     * @return the key of its FeaturedSpeaker
+     */
+    public static Key<FeaturedSpeaker> keyOf(Key<Conference> conferenceKey) {
+        return Key.create(conferenceKey, FeaturedSpeaker.class, ID);
+    }
+
+    /**
+     * Builds the announcement text of this featured speaker.
+     *
+     * @return the announcement text.
+     */
+    public String getMessage() {
+        StringBuilder speakerAnnouncementStringBuilder = new StringBuilder("Good news! ")
+                                                                .append(speaker)
+                                                                .append(" is having the following sessions at conference ")
+                                                                .append(conferenceName)
+                                                                .append(".");
+        for (String sessionName : getSessionNames()) {
+            speakerAnnouncementStringBuilder.append(" • ")
+                                            .append(sessionName);
+        }
+        return speakerAnnouncementStringBuilder.toString();
+    }
+}
@@ -0,0 +1,116 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.Date;
+
+/**
+ * A run of a mapper over every entity of its kind. The work is split into
+ * key ranges, each one processed by a MapperShard.
+ */
+@Entity
+public class MapperJob {
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * When the job was started.
+     */
+    private Date   created;
+
+    @Id
+    private String id;
+
+    /**
+     * The name of the mapper, in Migrations.
+     */
+    private String mapper;
+
+    /**
+     * The number of shards of the job.
+     */
+    private int    shards;
+
+    /**
+     * The maximum number of entities mapped by a slice, 0 for the default.
+     */
+    private int    sliceSize;
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
+    /**
+     * Just making the default constructor private.
+     */
+    @SuppressWarnings("unused")
+    private MapperJob() {
+    }
+
+    /**
+     * Creates a job started now.
+     *
+     * @param id
+     *            the id of the job
+     * @param mapper
+     *            the name of the mapper
+     * @param shards
+     *            the number of shards
+     * @param sliceSize
+     *            the maximum number of entities mapped by a slice
+     */
+    public MapperJob(String id, String mapper, int shards, int sliceSize) {
+        this.created = new Date();
+        this.id = id;
+        this.mapper = mapper;
+        this.shards = shards;
+        this.sliceSize = sliceSize;
+    }
+
+    /* **********************************************************************
+     * SETTERS AND GETTERS FOR ATTRIBUTES
+     * **********************************************************************
+     */
+
+    public Date getCreated() {
+        return created == null ? null : new Date(created.getTime());
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getMapper() {
+        return mapper;
+    }
+
+    public int getShards() {
+        return shards;
+    }
+
+    public int getSliceSize() {
+        return sliceSize;
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the key of a job.
+     *
+     * @param id
+     *            the id of the job
+     * @return the key of the MapperJob.
+     */
+    public static Key<MapperJob> key(String id) {
+        return Key.create(MapperJob.class, id);
+    }
+}
@@ -0,0 +1,185 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+/**
+ * A key range of a MapperJob and the checkpoint of its progress: the cursor
+ * the next slice continues from and the counts so far. Each shard is its own
+ * entity group, so the shards of a job checkpoint without contention.
+ */
+@Entity
+public class MapperShard {
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * The cursor the next slice continues from, null to start from the
+     * beginning of the range.
+     */
+    private String  cursor;
+
+    /**
+     * Whether the whole range has been mapped.
+     */
+    private boolean done;
+
+    /**
+     * The websafe key the range ends before, null for no upper bound.
+     */
+    private String  end;
+
+    /**
+     * The id of the job and the number of the shard.
+     */
+    @Id
+    private String  id;
+
+    /**
+     * The number of entities mapped so far.
+     */
+    private long    mapped;
+
+    /**
+     * The number of entities saved so far.
+     */
+    private long    saved;
+
+    /**
+     * The number of slices done.
+     */
+    private int     slice;
+
+    /**
+     * The websafe key the range starts at, null for no lower bound.
+     */
+    private String  start;
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
+    /**
+     * Just making the default constructor private.
+     */
+    @SuppressWarnings("unused")
+    private MapperShard() {
+    }
+
+    /**
+     * Creates a shard with nothing done yet.
+     *
+     * @param jobId
+     *            the id of the job
+     * @param shard
+     *            the number of the shard
+     * @param start
+     *            the websafe key the range starts at, null for no lower
+     *            bound
+     * @param end
+     *            the websafe key the range ends before, null for no upper
+     *            bound
+     */
+    public MapperShard(String jobId, int shard, String start, String end) {
+        this.end = end;
+        this.id = id(jobId, shard);
+        this.start = start;
+    }
+
+    /* **********************************************************************
+     * SETTERS AND GETTERS FOR ATTRIBUTES
+     * **********************************************************************
+     */
+
+    public String getCursor() {
+        return cursor;
+    }
+
+    public String getEnd() {
+        return end;
+    }
+
+    public long getMapped() {
+        return mapped;
+    }
+
+    public long getSaved() {
+        return saved;
+    }
+
+    public int getSlice() {
+        return slice;
+    }
+
+    public String getStart() {
+        return start;
+    }
+
+    public boolean isDone() {
+        return done;
+    }
+
+    /* **********************************************************************
+     * PRIVATE METHODS
+     * **********************************************************************
+     */
+
+    private static String id(String jobId, int shard) {
+        return jobId + "-" + shard;
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the key of a shard.
+     *
+     * @param jobId
+     *            the id of the job
+     * @param shard
+     *            the number of the shard
+     * @return the key of the MapperShard.
+     */
+    public static Key<MapperShard> key(String jobId, int shard) {
+        return Key.create(MapperShard.class, id(jobId, shard));
+    }
+
+    /**
+     * Returns whether a slice is the next one to run, so a slice run twice by
+     * the task queue is only checkpointed once.
+     *
+     * @param slice
+     *            the number of the slice
+     * @return true if the slice is the next one.
+     */
+    public boolean isNextSlice(int slice) {
+        return !done && this.slice == slice;
+    }
+
+    /**
+     * Checkpoints a slice.
+     *
+     * @param cursor
+     *            the cursor the next slice continues from
+     * @param mapped
+     *            the number of entities mapped by the slice
+     * @param saved
+     *            the number of entities saved by the slice
+     * @param done
+     *            whether the slice reached the end of the range
+     */
+    public void checkpoint(String cursor, int mapped, int saved, boolean done) {
+        this.cursor = cursor;
+        this.done = done;
+        this.mapped += mapped;
+        this.saved += saved;
+        this.slice++;
+    }
+}
@@ -0,0 +1,282 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * The set of the conferences that are nearly sold out, maintained as
+ * registrations cross the threshold. There is a single NearlySoldOut entity,
+ * with id ID.
+ *
+ * It also holds the checkpoint of the scan rebuilding the set in slices: the
+ * conferences found so far and the cursor to continue from. The set is
+ * replaced by the scanned conferences when the last slice finishes.
+ */
+@Entity
+public class NearlySoldOut {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    /**
+     * The id of the single NearlySoldOut entity.
+     */
+    public static final String ID = "default";
+
+    /* **********************************************************************
+     * INNER CLASSES
+     * **********************************************************************
+     */
+
+    /**
+     * A nearly sold out conference, embedded in the set.
+     */
+    public static class Item {
+
+        private String name;
+
+        private String websafeConferenceKey;
+
+        @SuppressWarnings("unused")
+        private Item() {
+        }
+
+        /**
+         * Creates the item of a conference.
+         *
+         * @param websafeConferenceKey
+         *            the websafe key of the conference
+         * @param name
+         *            the name of the conference
+         */
+        public Item(String websafeConferenceKey, String name) {
+            this.name = name;
+            this.websafeConferenceKey = websafeConferenceKey;
+        }
+
+        private Item(Conference conference) {
+            this(conference.getWebsafeKey(), conference.getName());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Item)) {
+                return false;
+            }
+            Item other = (Item) o;
+            return websafeConferenceKey.equals(other.websafeConferenceKey)
+                            && (name == null ? other.name == null : name.equals(other.name));
+        }
+
+        @Override
+        public int hashCode() {
+            return websafeConferenceKey.hashCode();
+        }
+    }
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    @Id
+    private String     id      = ID;
+
+    /**
+     * The nearly sold out conferences, in the order they became so.
+     */
+    private List<Item> items   = new ArrayList<>(0);
+
+    /**
+     * The cursor the running scan continues from, null to start from the
+     * first conference.
+     */
+    private String     scanCursor;
+
+    /**
+     * The id of the running scan, null if no scan is running.
+     */
+    private String     scanId;
+
+    /**
+     * The number of slices the running scan has done.
+     */
+    private int        scanSlice;
+
+    /**
+     * The nearly sold out conferences found so far by the running scan.
+     */
+    private List<Item> scanned = new ArrayList<>(0);
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
+    public NearlySoldOut() {
+    }
+
+    /* **********************************************************************
+     * SETTERS AND GETTERS FOR ATTRIBUTES
+     * **********************************************************************
+     */
+
+    public String getScanCursor() {
+        return scanCursor;
+    }
+
+    /* **********************************************************************
+     * PRIVATE METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Replaces, adds or removes the item of a conference in a list.
+     *
+     * @param list
+     *            the list of items
+     * @param websafeConferenceKey
+     *            the websafe key of the conference
+     * @param current
+     *            the item of the conference, null to remove it
+     * @return true if the list changed.
+     */
+    private static boolean update(List<Item> list, String websafeConferenceKey, Item current) {
+        for (Iterator<Item> iterator = list.iterator(); iterator.hasNext();) {
+            Item item = iterator.next();
+            if (item.websafeConferenceKey.equals(websafeConferenceKey)) {
+                if (item.equals(current)) {
+                    return false;
+                }
+                iterator.remove();
+                break;
+            }
+        }
+        if (current != null) {
+            list.add(current);
+        }
+        return true;
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the key of the single NearlySoldOut entity.
+     *
+     * @return its key.
+     */
+    public static Key<NearlySoldOut> key() {
+        return Key.create(NearlySoldOut.class, ID);
+    }
+
+    /**
+     * Returns the names of the nearly sold out conferences.
+     *
+     * @return the names, in the order the conferences became nearly sold
+     *         out.
+     */
+    public List<String> getNames() {
+        List<String> names = new ArrayList<>(items.size());
+        for (Item item : items) {
+            names.add(item.name);
+        }
+        return names;
+    }
+
+    /**
+     * Adds or removes a conference according to its seats left. A running
+     * scan is updated too, in case it already went past the conference.
+     *
+     * @param websafeConferenceKey
+     *            the websafe key of the conference
+     * @param conference
+     *            the conference, null if it no longer exists
+     * @return true if the set changed.
+     */
+    public boolean update(String websafeConferenceKey, Conference conference) {
+        Item current = conference != null && conference.isNearlySoldOut() ? new Item(conference) : null;
+        if (scanId != null) {
+            update(scanned, websafeConferenceKey, current);
+        }
+        return update(items, websafeConferenceKey, current);
+    }
+
+    /**
+     * Starts a scan, abandoning the running one if any.
+     *
+     * @param scanId
+     *            the id of the new scan
+     */
+    public void startScan(String scanId) {
+        this.scanCursor = null;
+        this.scanId = scanId;
+        this.scanSlice = 0;
+        this.scanned = new ArrayList<>();
+    }
+
+    /**
+     * Tells whether a slice is the next one of the running scan, so that a
+     * slice of an abandoned scan or a slice run twice is ignored.
+     *
+     * @param scanId
+     *            the id of the scan of the slice
+     * @param slice
+     *            the number of the slice
+     * @return true if the slice is to be done.
+     */
+    public boolean isNextSlice(String scanId, int slice) {
+        return scanId.equals(this.scanId) && slice == scanSlice;
+    }
+
+    /**
+     * Records the conferences found by a slice of the running scan.
+     *
+     * @param found
+     *            the nearly sold out conferences found by the slice
+     * @param cursor
+     *            the cursor to continue from
+     */
+    public void addScanned(List<Item> found, String cursor) {
+        for (Item item : found) {
+            update(scanned, item.websafeConferenceKey, item);
+        }
+        this.scanCursor = cursor;
+        this.scanSlice++;
+    }
+
+    /**
+     * Ends the running scan, replacing the set by the scanned conferences.
+     * The conferences already in the set keep their order.
+     *
+     * @return true if the set changed.
+     */
+    public boolean finishScan() {
+        List<Item> replaced = new ArrayList<>(scanned.size());
+        for (Item item : items) {
+            if (scanned.contains(item)) {
+                replaced.add(item);
+            }
+        }
+        for (Item item : scanned) {
+            if (!replaced.contains(item)) {
+                replaced.add(item);
+            }
+        }
+        startScan(null);
+        if (replaced.equals(items)) {
+            return false;
+        }
+        items = replaced;
+        return true;
+    }
+}
@@ -1,14 +1,26 @@
 package com.google.devrel.training.conference.domain;
 
-import com.google.common.collect.ImmutableList;
+import com.google.api.server.spi.config.AnnotationBoolean;
+import com.google.api.server.spi.config.ApiResourceProperty;
+import com.google.common.base.Objects;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.googlecode.objectify.Key;
 import com.googlecode.objectify.annotation.Cache;
 import com.googlecode.objectify.annotation.Entity;
 import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Ignore;
+import com.googlecode.objectify.annotation.IgnoreSave;
+import com.googlecode.objectify.condition.IfEmpty;
 
 import java.util.ArrayList;
 import java.util.List;
 
+/**
+ * Profile class stores the core fields of a user. The growing key lists live
+ * in the ProfileMemberships child entity, which is only loaded on request:
+ * ProfileContext.loadWithMemberships() attaches it, so no getter of a Profile
+ * ever goes to the datastore.
+ */
 @Entity
 @Cache
 public class Profile {
@@ -29,8 +41,11 @@ public class Profile {
      */
      
     /**
-     * Keys of the conferences that this user registers to attend.
+     * Keys of the conferences that this user registers to attend, as stored
+     * inline by profiles saved before ProfileMemberships existed. Only used to
+     * seed the memberships of those profiles, cleared once they are saved.
      */
+    @IgnoreSave(IfEmpty.class)
     private List<String> conferenceKeysToAttend = new ArrayList<>(0);
 
     /**
@@ -44,10 +59,26 @@ public class Profile {
     private String       mainEmail;
 
     /**
-     * Keys of the session that this user wishes to attend.
+     * The key lists of this user, null until attached.
      */
+    @Ignore
+    private ProfileMemberships memberships;
+
+    /**
+     * Keys of the session that this user wishes to attend, as stored inline by
+     * profiles saved before ProfileMemberships existed. Only used to seed the
+     * memberships of those profiles, cleared once they are saved.
+     */
+    @IgnoreSave(IfEmpty.class)
     private List<String> sessionKeysWishlist    = new ArrayList<>(0);
 
+    /**
+     * The websafe keys of the sessions in the wishlist of this user, as
+     * resolved by the API for the profile page. Null until attached.
+     */
+    @Ignore
+    private List<String> sessionsInWhishlist;
+
     /**
      * The user's tee shirt size. Options are defined as an Enum in ProfileForm
      */
@@ -89,6 +120,7 @@ public class Profile {
         this.displayName = displayName;
         this.mainEmail = mainEmail;
         this.teeShirtSize = teeShirtSize;
+        this.memberships = new ProfileMemberships(getKey(), new ArrayList<String>(0), new ArrayList<String>(0));
     }
 
     /* **********************************************************************
@@ -97,12 +129,14 @@ public class Profile {
      */
 
     /**
-     * Getter for displayName
+     * Getter for conferenceKeysToAttend, from the attached memberships.
      * 
      * @return Immutable copy of conferenceKeysToAttend
+     * @throws IllegalStateException
+     *             when the memberships are not attached.
      */
     public List<String> getConferenceKeysToAttend() {
-        return ImmutableList.copyOf(conferenceKeysToAttend);
+        return getMemberships().getConferenceKeysToAttend();
     }
 
     /**
@@ -114,6 +148,16 @@ public class Profile {
         return displayName;
     }
 
+    /**
+     * Returns the datastore key of this Profile.
+     * 
+     * @return the key of this Profile.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public Key<Profile> getKey() {
+        return Key.create(Profile.class, userId);
+    }
+
     /**
      * Getter for mainEmail.
      * 
@@ -124,12 +168,29 @@ public class Profile {
     }
 
     /**
-     * Getter for sessionKeysWishlist
+     * Returns the key lists of this user. Save the returned entity after
+     * changing registrations or the wishlist.
+     * 
+     * @return the ProfileMemberships of this user.
+     * @throws IllegalStateException
+     *             when the memberships are not attached.
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public ProfileMemberships getMemberships() {
+        if (memberships == null) {
+            throw new IllegalStateException("The memberships of " + userId + " are not loaded");
+        }
+        return memberships;
+    }
+
+    /**
+     * Returns the websafe keys of the sessions in the wishlist of this user,
+     * when attached by the API.
      * 
-     * @return Immutable copy of sessionKeysWishlist
+     * @return the websafe keys of the sessions in the wishlist, or null.
      */
     public List<String> getSessionsInWhishlist() {
-        return ImmutableList.copyOf(this.sessionKeysWishlist);
+        return sessionsInWhishlist;
     }
 
     /**
@@ -160,6 +221,69 @@ public class Profile {
      * **********************************************************************
      */ 
 
+    /**
+     * Attaches the websafe keys of the sessions in the wishlist of this user,
+     * to be returned with it.
+     *
+     * @param sessionsInWhishlist
+     *            the websafe keys of the sessions in the wishlist
+     */
+    @ApiResourceProperty(ignored = AnnotationBoolean.TRUE)
+    public void setSessionsInWhishlist(List<String> sessionsInWhishlist) {
+        this.sessionsInWhishlist = sessionsInWhishlist;
+    }
+
+    /**
+     * Attaches the key lists of this user, as loaded with it.
+     *
+     * @param memberships
+     *            the ProfileMemberships of this user, null if it was never
+     *            saved: it is then seeded with the lists stored inline by
+     *            profiles saved before ProfileMemberships existed
+     */
+    public void attachMemberships(ProfileMemberships memberships) {
+        this.memberships = memberships != null ? memberships
+                        : new ProfileMemberships(getKey(), conferenceKeysToAttend, sessionKeysWishlist);
+    }
+
+    /**
+     * Returns whether the key lists of this user are attached.
+     *
+     * @return true if getMemberships() can be called.
+     */
+    public boolean hasMemberships() {
+        return memberships != null;
+    }
+
+    /**
+     * Returns whether this Profile still carries the key lists stored inline
+     * before ProfileMemberships existed.
+     *
+     * @return true if the inline lists are not empty.
+     */
+    public boolean hasLegacyLists() {
+        return !conferenceKeysToAttend.isEmpty() || !sessionKeysWishlist.isEmpty();
+    }
+
+    /**
+     * Returns the entities to save after changing the key lists of this user:
+     * its memberships and, while it still carries the legacy inline lists,
+     * this Profile with them cleared. The memberships hold the lists from
+     * then on, so both must be saved in the same transaction.
+     *
+     * @return the entities to save.
+     */
+    public List<Object> membershipsToSave() {
+        List<Object> entities = new ArrayList<>(2);
+        entities.add(getMemberships());
+        if (hasLegacyLists()) {
+            conferenceKeysToAttend = new ArrayList<>(0);
+            sessionKeysWishlist = new ArrayList<>(0);
+            entities.add(this);
+        }
+        return entities;
+    }
+
     /**
      * Adds a ConferenceId to conferenceIdsToAttend.
      *
@@ -171,17 +295,7 @@ public class Profile {
      *            a websafe String representation of the Conference Key.
      */
     public void addConferenceKeysToAttend(String conferenceKey) {
-        conferenceKeysToAttend.add(conferenceKey);
-    }
-
-    /**
-     * Adds a SessionKey to sessionKeysWishlist
-     * 
-     * @param sessionKey
-     *            a websage STriong representation of the Session Key.
-     */
-    public void addSessionKeyToWishlist(String sessionKey) {
-        sessionKeysWishlist.add(sessionKey);
+        getMemberships().addConferenceKeysToAttend(conferenceKey);
     }
 
     /**
@@ -194,37 +308,7 @@ public class Profile {
      *         otherwise
      */
     public boolean isRegisteredForConference(String conferenceKey) {
-        return conferenceKeysToAttend.contains(conferenceKey);
-    }
-
-    /**
-     * Returns whether sessionKey is in sessionKeysWishlist
-     * 
-     * @param sessionKey
-     *            The session key to check
-     * 
-     * @return true if sessionKey is in sessionKeysWishlist. False otherwise
-     */
-    public boolean isSessionInWishlist(String sessionKey) {
-        return this.sessionKeysWishlist.contains(sessionKey);
-    }
-
-    /**
-     * Removes sessionKey to sessionKeysWishlist if it exists.
-     * 
-     * @param sessionKey
-     *            the session key to remove
-     * 
-     * @throws IllegalArgumentException
-     *             When sessionKey is not in sessionKeysWishlist
-     */
-    public void removeSessionKeysToWishlist(String sessionKey) {
-        if (sessionKeysWishlist.contains(sessionKey)) {
-            sessionKeysWishlist.remove(sessionKey);
-        }
-        else {
-            throw new IllegalArgumentException(String.format("Invalid sessionKey: %s", sessionKey));
-        }
+        return getMemberships().isRegisteredForConference(conferenceKey);
     }
 
     /**
@@ -237,13 +321,7 @@ public class Profile {
      *             When conferenceKey is not in conferenceKeysToAttend
      */
     public void unregisterFromConference(String conferenceKey) throws IllegalArgumentException {
-        if (conferenceKeysToAttend.contains(conferenceKey)) {
-            conferenceKeysToAttend.remove(conferenceKey);
-        }
-        else {
-            throw new IllegalArgumentException(String.format("Invalid conferenceKey: %s", conferenceKey));
-        }
-
+        getMemberships().unregisterFromConference(conferenceKey);
     }
 
     /**
@@ -253,14 +331,19 @@ public class Profile {
      *            the updated name
      * @param teeShirtSize
      *            the new tee-shirt size
+     * @return true if any field changed, false if the profile is unchanged
      */
-    public void update(String displayName, TeeShirtSize teeShirtSize) {
-        if (displayName != null) {
+    public boolean update(String displayName, TeeShirtSize teeShirtSize) {
+        boolean changed = false;
+        if (displayName != null && !displayName.equals(this.displayName)) {
             this.displayName = displayName;
+            changed = true;
         }
-        if (teeShirtSize != null) {
+        if (teeShirtSize != null && !Objects.equal(teeShirtSize, this.teeShirtSize)) {
             this.teeShirtSize = teeShirtSize;
+            changed = true;
         }
+        return changed;
     }
 
 }
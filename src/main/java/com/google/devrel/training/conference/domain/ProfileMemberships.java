@@ -0,0 +1,165 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Holds the growing key lists of a Profile, so the Profile entity itself stays
+ * small and can be rewritten cheaply when only its core fields change. There
+ * is exactly one ProfileMemberships per Profile, child of it, with id ID.
+ */
+@Entity
+@Cache
+public class ProfileMemberships {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    /**
+     * The id of the single ProfileMemberships child of a Profile.
+     */
+    public static final long ID = 1L;
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * Keys of the conferences that this user registers to attend.
+     */
+    private List<String> conferenceKeysToAttend = new ArrayList<>(0);
+
+    @Id
+    private long         id                     = ID;
+
+    /**
+     * Holds the Profile key as the parent.
+     */
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * Keys of the session that this user wishes to attend, as stored before
+     * WishlistEntry existed. Only read until moved by WishlistService.migrate.
+     */
+    private List<String> sessionKeysWishlist    = new ArrayList<>(0);
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
+    /**
+     * Just making the default constructor private.
+     */
+    @SuppressWarnings("unused")
+    private ProfileMemberships() {
+    }
+
+    /**
+     * Creates the memberships of a Profile, seeded with the given keys.
+     *
+     * @param profileKey
+     *            the key of the parent Profile
+     * @param conferenceKeysToAttend
+     *            initial keys of the conferences to attend
+     * @param sessionKeysWishlist
+     *            initial keys of the sessions in the wishlist
+     */
+    public ProfileMemberships(Key<Profile> profileKey, List<String> conferenceKeysToAttend, List<String> sessionKeysWishlist) {
+        this.profileKey = profileKey;
+        this.conferenceKeysToAttend.addAll(conferenceKeysToAttend);
+        this.sessionKeysWishlist.addAll(sessionKeysWishlist);
+    }
+
+    /* **********************************************************************
+     * SETTERS AND GETTERS FOR ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * Getter for conferenceKeysToAttend.
+     *
+     * @return Immutable copy of conferenceKeysToAttend
+     */
+    public List<String> getConferenceKeysToAttend() {
+        return ImmutableList.copyOf(conferenceKeysToAttend);
+    }
+
+    /**
+     * Getter for sessionKeysWishlist.
+     *
+     * @return Immutable copy of sessionKeysWishlist
+     */
+    public List<String> getSessionKeysWishlist() {
+        return ImmutableList.copyOf(sessionKeysWishlist);
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the key of the memberships of the given Profile.
+     *
+     * @param profileKey
+     *            the key of the Profile
+     * @return the key of its ProfileMemberships
+     */
+    public static Key<ProfileMemberships> keyOf(Key<Profile> profileKey) {
+        return Key.create(profileKey, ProfileMemberships.class, ID);
+    }
+
+    /**
+     * Adds a conference key to conferenceKeysToAttend.
+     *
+     * @param conferenceKey
+     *            a websafe String representation of the Conference Key.
+     */
+    public void addConferenceKeysToAttend(String conferenceKey) {
+        conferenceKeysToAttend.add(conferenceKey);
+    }
+
+    /**
+     * Empties sessionKeysWishlist, once its keys are stored as WishlistEntry.
+     */
+    public void clearSessionKeysWishlist() {
+        sessionKeysWishlist.clear();
+    }
+
+    /**
+     * Returns whether conferenceKey is in conferenceKeysToAttend.
+     *
+     * @param conferenceKey
+     *            The conference key to check
+     * @return true if conferenceKey is in conferenceKeysToAttend.
+     */
+    public boolean isRegisteredForConference(String conferenceKey) {
+        return conferenceKeysToAttend.contains(conferenceKey);
+    }
+
+    /**
+     * Removes conferenceKey from conferenceKeysToAttend.
+     *
+     * @param conferenceKey
+     *            a websafe String representation of the Conference Key
+     * @throws IllegalArgumentException
+     *             When conferenceKey is not in conferenceKeysToAttend
+     */
+    public void unregisterFromConference(String conferenceKey) {
+        if (!conferenceKeysToAttend.remove(conferenceKey)) {
+            throw new IllegalArgumentException(String.format("Invalid conferenceKey: %s", conferenceKey));
+        }
+    }
+}
@@ -225,6 +225,15 @@ public class Session {
     public String getType() {
         return type;
     }
+
+    /**
+     * Get a String version of the key
+     * 
+     * @return a String version of the key
+     */
+    public String getWebsafeKey() {
+        return Key.create(conferenceKey, Session.class, id).getString();
+    }
     
     /* **********************************************************************
      * PRIVATE METHODS
@@ -0,0 +1,154 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The number of sessions of each speaker in a conference, maintained as
+ * sessions are created. There is at most one SpeakerCounts per Conference,
+ * child of it with id ID, so it is updated in the same entity group as the
+ * sessions themselves.
+ */
+@Entity
+@Cache
+public class SpeakerCounts {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    /**
+     * The id of the single SpeakerCounts child of a Conference.
+     */
+    public static final long ID = 1L;
+
+    /* **********************************************************************
+     * INNER CLASSES
+     * **********************************************************************
+     */
+
+    /**
+     * The session count of one speaker, embedded in SpeakerCounts. A list of
+     * these is used rather than a Map, as speaker names may contain dots.
+     */
+    public static class Count {
+
+        private long   sessions;
+
+        private String speaker;
+
+        @SuppressWarnings("unused")
+        private Count() {
+        }
+
+        private Count(String speaker) {
+            this.speaker = speaker;
+        }
+    }
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * Holds Conference key as the parent.
+     */
+    @Parent
+    private Key<Conference> conferenceKey;
+
+    /**
+     * The count of each speaker having sessions in the conference.
+     */
+    private List<Count>     counts = new ArrayList<>(0);
+
+    @Id
+    private long            id     = ID;
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
+    /**
+     * Just making the default constructor private.
+     */
+    @SuppressWarnings("unused")
+    private SpeakerCounts() {
+    }
+
+    /**
+     * Creates the empty counts of a conference.
+     *
+     * @param conferenceKey
+     *            the key of the conference
+     */
+    public SpeakerCounts(Key<Conference> conferenceKey) {
+        this.conferenceKey = conferenceKey;
+    }
+
+    /* **********************************************************************
+     * PRIVATE METHODS
+     * **********************************************************************
+     */
+
+    private Count find(String speaker) {
+        for (Count count : counts) {
+            if (count.speaker.equals(speaker)) {
+                return count;
+            }
+        }
+        return null;
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the key of the speaker counts of a conference.
+     *
+     * @param conferenceKey
+     *            the key of the conference
+     * @return the key of its SpeakerCounts
+     */
+    public static Key<SpeakerCounts> keyOf(Key<Conference> conferenceKey) {
+        return Key.create(conferenceKey, SpeakerCounts.class, ID);
+    }
+
+    /**
+     * Returns the number of sessions of a speaker.
+     *
+     * @param speaker
+     *            the speaker
+     * @return the number of sessions of the speaker in the conference.
+     */
+    public long get(String speaker) {
+        Count count = find(speaker);
+        return count == null ? 0 : count.sessions;
+    }
+
+    /**
+     * Counts one more session of a speaker.
+     *
+     * @param speaker
+     *            the speaker
+     * @return the new number of sessions of the speaker.
+     */
+    public long increment(String speaker) {
+        Count count = find(speaker);
+        if (count == null) {
+            count = new Count(speaker);
+            counts.add(count);
+        }
+        return ++count.sessions;
+    }
+}
@@ -0,0 +1,204 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.common.collect.ImmutableList;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The sessions of a speaker across all conferences, in start order. There is
+ * one SpeakerIndex per speaker, keyed by the normalized speaker name, so the
+ * sessions of a speaker are found with a single get instead of a query over
+ * every session.
+ */
+@Entity
+@Cache
+public class SpeakerIndex {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    private static final Comparator<Item> BY_START = new Comparator<Item>() {
+        @Override
+        public int compare(Item a, Item b) {
+            int byDate = a.date.compareTo(b.date);
+            return byDate != 0 ? byDate : a.time.compareTo(b.time);
+        }
+    };
+
+    /* **********************************************************************
+     * INNER CLASSES
+     * **********************************************************************
+     */
+
+    /**
+     * A session of the speaker, embedded in the index.
+     */
+    public static class Item {
+
+        /**
+         * Date of the session.
+         */
+        private Date         date;
+
+        /**
+         * The session, child of its conference.
+         */
+        private Key<Session> sessionKey;
+
+        /**
+         * Time the session starts in format HH:MM.
+         */
+        private String       time;
+
+        @SuppressWarnings("unused")
+        private Item() {
+        }
+
+        private Item(Session session) {
+            this.date = session.getDate();
+            this.sessionKey = Key.create(session.getConferenceKey(), Session.class, session.getId());
+            this.time = session.getTime();
+        }
+
+        public Key<Session> getSessionKey() {
+            return sessionKey;
+        }
+
+        public Key<Conference> getConferenceKey() {
+            return sessionKey.getParent();
+        }
+
+        public Date getDate() {
+            return date == null ? null : new Date(date.getTime());
+        }
+
+        public String getTime() {
+            return time;
+        }
+    }
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * The normalized speaker name.
+     */
+    @Id
+    private String     id;
+
+    /**
+     * The sessions of the speaker, in start order.
+     */
+    private List<Item> items = new ArrayList<>(0);
+
+    /**
+     * The speaker name, as first given.
+     */
+    private String     speaker;
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
+    /**
+     * Just making the default constructor private.
+     */
+    @SuppressWarnings("unused")
+    private SpeakerIndex() {
+    }
+
+    /**
+     * Creates the empty index of a speaker.
+     *
+     * @param speaker
+     *            the speaker name
+     */
+    public SpeakerIndex(String speaker) {
+        this.id = normalize(speaker);
+        this.speaker = speaker;
+    }
+
+    /* **********************************************************************
+     * SETTERS AND GETTERS FOR ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * Getter for items.
+     *
+     * @return Immutable copy of items.
+     */
+    public List<Item> getItems() {
+        return ImmutableList.copyOf(items);
+    }
+
+    /**
+     * Getter for speaker.
+     *
+     * @return speaker.
+     */
+    public String getSpeaker() {
+        return speaker;
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Normalizes a speaker name, so that differences of case or surrounding
+     * spaces lead to the same index.
+     *
+     * @param speaker
+     *            the speaker name
+     * @return the normalized name.
+     */
+    public static String normalize(String speaker) {
+        return speaker.trim().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Returns the key of the index of a speaker.
+     *
+     * @param speaker
+     *            the speaker name
+     * @return the key of its SpeakerIndex.
+     */
+    public static Key<SpeakerIndex> keyOf(String speaker) {
+        return Key.create(SpeakerIndex.class, normalize(speaker));
+    }
+
+    /**
+     * Adds a session to the index, unless it is already there.
+     *
+     * @param session
+     *            a session of the speaker
+     * @return true if the session was added.
+     */
+    public boolean add(Session session) {
+        Item item = new Item(session);
+        for (Item existing : items) {
+            if (existing.sessionKey.equals(item.sessionKey)) {
+                return false;
+            }
+        }
+        items.add(item);
+        Collections.sort(items, BY_START);
+        return true;
+    }
+}
@@ -0,0 +1,164 @@
+package com.google.devrel.training.conference.domain;
+
+import com.google.appengine.api.datastore.KeyFactory;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Index;
+import com.googlecode.objectify.annotation.Parent;
+
+import java.util.Date;
+
+/**
+ * A durable announcement, identified by name. Every StoredAnnouncement is a
+ * child of BOARD, so the active ones can be read with a strongly consistent
+ * ancestor query. version grows by one every time the text or the state of
+ * the announcement changes.
+ */
+@Entity
+public class StoredAnnouncement {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    /**
+     * The common ancestor of all the announcements.
+     */
+    public static final Key<Object> BOARD = Key.create(KeyFactory.createKey("AnnouncementBoard", "default"));
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * True while the announcement is shown.
+     */
+    @Index
+    private boolean     active;
+
+    @Parent
+    private Key<Object> board = BOARD;
+
+    private String      message;
+
+    @Id
+    private String      name;
+
+    /**
+     * Announcements with a higher priority are shown first.
+     */
+    private int         priority;
+
+    /**
+     * When the announcement last changed.
+     */
+    private Date        updated;
+
+    private long        version;
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
+    /**
+     * Just making the default constructor private.
+     */
+    @SuppressWarnings("unused")
+    private StoredAnnouncement() {
+    }
+
+    /**
+     * Creates an inactive announcement with the given name.
+     *
+     * @param name
+     *            the name of the announcement
+     */
+    public StoredAnnouncement(String name) {
+        this.name = name;
+    }
+
+    /* **********************************************************************
+     * SETTERS AND GETTERS FOR ATTRIBUTES
+     * **********************************************************************
+     */
+
+    public String getMessage() {
+        return message;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getPriority() {
+        return priority;
+    }
+
+    public Date getUpdated() {
+        return updated;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public boolean isActive() {
+        return active;
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the key of the announcement with the given name.
+     *
+     * @param name
+     *            the name of the announcement
+     * @return the key of the announcement
+     */
+    public static Key<StoredAnnouncement> keyOf(String name) {
+        return Key.create(BOARD, StoredAnnouncement.class, name);
+    }
+
+    /**
+     * Shows the given text, bumping the version if anything changes.
+     *
+     * @param message
+     *            the announcement text
+     * @param priority
+     *            the priority of the announcement
+     * @return true if the announcement changed.
+     */
+    public boolean publish(String message, int priority) {
+        if (active && message.equals(this.message) && priority == this.priority) {
+            return false;
+        }
+        this.active = true;
+        this.message = message;
+        this.priority = priority;
+        this.updated = new Date();
+        this.version++;
+        return true;
+    }
+
+    /**
+     * Stops showing the announcement, bumping the version if it was shown.
+     *
+     * @return true if the announcement changed.
+     */
+    public boolean retract() {
+        if (!active) {
+            return false;
+        }
+        this.active = false;
+        this.updated = new Date();
+        this.version++;
+        return true;
+    }
+}
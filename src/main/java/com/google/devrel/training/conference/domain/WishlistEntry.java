@@ -0,0 +1,96 @@
+package com.google.devrel.training.conference.domain;
+
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.annotation.Cache;
+import com.googlecode.objectify.annotation.Entity;
+import com.googlecode.objectify.annotation.Id;
+import com.googlecode.objectify.annotation.Parent;
+
+/**
+ * A session in a user's wishlist. Entries are children of the Profile keyed by
+ * the websafe session key, so adding or removing a session is a single put or
+ * delete that never rewrites the Profile or its ProfileMemberships.
+ */
+@Entity
+@Cache
+public class WishlistEntry {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * Holds Profile key as the parent.
+     */
+    @Parent
+    private Key<Profile> profileKey;
+
+    /**
+     * The websafe key of the session in the wishlist.
+     */
+    @Id
+    private String       websafeSessionKey;
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
+    /**
+     * Just making the default constructor private.
+     */
+    @SuppressWarnings("unused")
+    private WishlistEntry() {
+    }
+
+    /**
+     * Public constructor for WishlistEntry.
+     *
+     * @param profileKey
+     *            the key of the Profile owning the wishlist
+     * @param websafeSessionKey
+     *            the websafe key of the session
+     */
+    public WishlistEntry(Key<Profile> profileKey, String websafeSessionKey) {
+        this.profileKey = profileKey;
+        this.websafeSessionKey = websafeSessionKey;
+    }
+
+    /* **********************************************************************
+     * SETTERS AND GETTERS FOR ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * Getter for websafeSessionKey.
+     *
+     * @return websafeSessionKey.
+     */
+    public String getWebsafeSessionKey() {
+        return websafeSessionKey;
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the key of the wishlist entry of a session.
+     *
+     * @param profileKey
+     *            the key of the Profile owning the wishlist
+     * @param websafeSessionKey
+     *            the websafe key of the session
+     * @return the key of the WishlistEntry
+     */
+    public static Key<WishlistEntry> keyOf(Key<Profile> profileKey, String websafeSessionKey) {
+        return Key.create(profileKey, WishlistEntry.class, websafeSessionKey);
+    }
+}
@@ -0,0 +1,85 @@
+package com.google.devrel.training.conference.form;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Pojo representing a batch of wishlist changes sent from the client.
+ */
+public class WishlistForm {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    /* **********************************************************************
+     * ENUMS
+     * **********************************************************************
+     */
+
+    /* **********************************************************************
+     * INNER CLASSES
+     * **********************************************************************
+     */
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * Websafe keys of the sessions to add to the wishlist.
+     */
+    private List<String> sessionKeysToAdd;
+
+    /**
+     * Websafe keys of the sessions to remove from the wishlist.
+     */
+    private List<String> sessionKeysToRemove;
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+    @SuppressWarnings("unused")
+    private WishlistForm() {
+    }
+
+    /**
+     * Constructor for WishlistForm, solely for unit test.
+     * 
+     * @param sessionKeysToAdd
+     *            Websafe keys of the sessions to add to the wishlist.
+     * @param sessionKeysToRemove
+     *            Websafe keys of the sessions to remove from the wishlist.
+     */
+    public WishlistForm(List<String> sessionKeysToAdd, List<String> sessionKeysToRemove) {
+        this.sessionKeysToAdd = sessionKeysToAdd == null ? null : ImmutableList.copyOf(sessionKeysToAdd);
+        this.sessionKeysToRemove = sessionKeysToRemove == null ? null : ImmutableList.copyOf(sessionKeysToRemove);
+    }
+
+    /* **********************************************************************
+     * SETTERS AND GETTERS FOR ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * Getter for sessionKeysToAdd.
+     * 
+     * @return sessionKeysToAdd, never null.
+     */
+    public List<String> getSessionKeysToAdd() {
+        return sessionKeysToAdd == null ? ImmutableList.<String> of() : sessionKeysToAdd;
+    }
+
+    /**
+     * Getter for sessionKeysToRemove.
+     * 
+     * @return sessionKeysToRemove, never null.
+     */
+    public List<String> getSessionKeysToRemove() {
+        return sessionKeysToRemove == null ? ImmutableList.<String> of() : sessionKeysToRemove;
+    }
+}
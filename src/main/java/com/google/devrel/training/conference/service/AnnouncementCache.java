@@ -0,0 +1,266 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Charsets;
+import com.google.common.hash.Hashing;
+import com.google.devrel.training.conference.domain.Announcement;
+import com.google.devrel.training.conference.service.CacheStats.Event;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Per-instance cache of the announcement texts kept in memcache.
+ *
+ * A text is served from the instance for TTL_MILLIS. Once expired it is still
+ * served while an asynchronous memcache get refreshes it, and the refreshed
+ * value is picked up by the first request after the get completes. Only the
+ * very first read, or a read of a text stale for more than MAX_STALE_MILLIS,
+ * waits for memcache.
+ *
+ * Texts with a durable copy are read with a loader: when memcache misses, the
+ * loader text is added back to memcache, an empty text standing for "no
+ * announcement" so that misses are not repeated.
+ */
+public class AnnouncementCache {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+    private static final Logger                     LOG              = Logger.getLogger(AnnouncementCache.class.getName());
+
+    /**
+     * How long a text is served before being refreshed.
+     */
+    private static final long                       TTL_MILLIS       = 30 * 1000;
+
+    /**
+     * How long past its TTL a text may be served while refreshing.
+     */
+    private static final long                       MAX_STALE_MILLIS = 5 * 60 * 1000;
+
+    private static final String                     LOCAL_FAMILY     = "announcement.local";
+
+    private static final String                     MEMCACHE_FAMILY  = "announcement.memcache";
+
+    private static final ConcurrentMap<String, Entry> ENTRIES        = new ConcurrentHashMap<>();
+
+    /* **********************************************************************
+     * INNER CLASSES
+     * **********************************************************************
+     */
+
+    /**
+     * A cached text, with the pending refresh if any. Entries are immutable,
+     * a refresh replaces the entry.
+     */
+    private static class Entry {
+
+        private final Announcement   announcement;
+        private final long           loadedAt;
+        private final Future<Object> refresh;
+
+        private Entry(Announcement announcement, long loadedAt, Future<Object> refresh) {
+            this.announcement = announcement;
+            this.loadedAt = loadedAt;
+            this.refresh = refresh;
+        }
+    }
+
+    /* **********************************************************************
+     * PRIVATE METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Wraps a memcache value into a versioned Announcement.
+     *
+     * @param value
+     *            the memcache value, may be null
+     * @return the Announcement, or null if there is no text.
+     */
+    private static Announcement toAnnouncement(Object value) {
+        if (value == null || value.toString().isEmpty()) {
+            return null;
+        }
+        String message = value.toString();
+        return new Announcement(message, version(message));
+    }
+
+    /**
+     * Returns the memcache value, reading it through the loader on a miss.
+     * The loaded text is only added to memcache if no other request has set
+     * it meanwhile, so a stale load never overwrites a newer text.
+     *
+     * @param memcacheKey
+     *            the memcache key of the text
+     * @param value
+     *            the value read from memcache, may be null
+     * @param loader
+     *            loads the durable text, may be null
+     * @return the value, or null if there is none.
+     */
+    private static Object readThrough(String memcacheKey, Object value, Callable<String> loader) {
+        CacheStats.record(MEMCACHE_FAMILY, memcacheKey, value == null ? Event.MISS : Event.HIT,
+                        value == null ? 0 : CacheStats.sizeOf(value.toString()));
+        if (value != null || loader == null) {
+            return value;
+        }
+        try {
+            String text = loader.call();
+            MemcacheServiceFactory.getMemcacheService().put(memcacheKey, text, null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+            CacheStats.record(MEMCACHE_FAMILY, memcacheKey, Event.SET, CacheStats.sizeOf(text));
+            return text;
+        }
+        catch (Exception e) {
+            LOG.log(Level.WARNING, "Failed to load " + memcacheKey, e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns whether a read must wait for memcache: when nothing is cached,
+     * or the cached text is stale for too long.
+     *
+     * @param entry
+     *            the cached entry, may be null
+     * @param now
+     *            the current time
+     * @return true if memcache must be read synchronously.
+     */
+    private static boolean mustWait(Entry entry, long now) {
+        return entry == null || now - entry.loadedAt > TTL_MILLIS + MAX_STALE_MILLIS;
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the version of an announcement text, used by clients to poll
+     * for changes.
+     *
+     * @param message
+     *            the announcement text
+     * @return a short hash of the text.
+     */
+    public static String version(String message) {
+        return Hashing.murmur3_32().hashString(message, Charsets.UTF_8).toString();
+    }
+
+    /**
+     * Returns the announcement stored in memcache under the given key.
+     *
+     * @param memcacheKey
+     *            the memcache key of the text
+     * @return the announcement, or null if there is none.
+     */
+    public static Announcement get(String memcacheKey) {
+        return get(memcacheKey, null);
+    }
+
+    /**
+     * Returns the announcement stored in memcache under the given key, reading
+     * it through the loader when memcache misses.
+     *
+     * @param memcacheKey
+     *            the memcache key of the text
+     * @param loader
+     *            loads the durable text, empty if there is none
+     * @return the announcement, or null if there is none.
+     */
+    public static Announcement get(String memcacheKey, Callable<String> loader) {
+        long now = System.currentTimeMillis();
+        Entry entry = ENTRIES.get(memcacheKey);
+
+        if (entry != null && entry.refresh != null && entry.refresh.isDone()) {
+            try {
+                entry = new Entry(toAnnouncement(readThrough(memcacheKey, entry.refresh.get(), loader)), now, null);
+            }
+            catch (InterruptedException | ExecutionException e) {
+                LOG.log(Level.WARNING, "Failed to refresh " + memcacheKey, e);
+                entry = new Entry(entry.announcement, now, null);
+            }
+            ENTRIES.put(memcacheKey, entry);
+        }
+
+        if (mustWait(entry, now)) {
+            CacheStats.record(LOCAL_FAMILY, memcacheKey, Event.MISS, 0);
+            Object value = MemcacheServiceFactory.getMemcacheService().get(memcacheKey);
+            entry = new Entry(toAnnouncement(readThrough(memcacheKey, value, loader)), now, null);
+            ENTRIES.put(memcacheKey, entry);
+        }
+        else {
+            CacheStats.record(LOCAL_FAMILY, memcacheKey, Event.HIT, 0);
+            if (now - entry.loadedAt > TTL_MILLIS && entry.refresh == null) {
+                Future<Object> refresh = MemcacheServiceFactory.getAsyncMemcacheService().get(memcacheKey);
+                ENTRIES.replace(memcacheKey, entry, new Entry(entry.announcement, entry.loadedAt, refresh));
+            }
+        }
+        return entry.announcement;
+    }
+
+    /**
+     * Returns the announcements stored in memcache under the given keys. The
+     * texts this instance must wait for are read with a single memcache
+     * getAll, the others are served as by get().
+     *
+     * @param loaders
+     *            the loader of each memcache key, null values for keys
+     *            without a durable text
+     * @return the announcement of each key, null values if there is none.
+     */
+    public static Map<String, Announcement> getAll(Map<String, Callable<String>> loaders) {
+        long now = System.currentTimeMillis();
+        Map<String, Announcement> announcements = new HashMap<>();
+        List<String> memcacheKeys = new ArrayList<>(loaders.size());
+        for (Map.Entry<String, Callable<String>> loader : loaders.entrySet()) {
+            if (mustWait(ENTRIES.get(loader.getKey()), now)) {
+                memcacheKeys.add(loader.getKey());
+            }
+            else {
+                announcements.put(loader.getKey(), get(loader.getKey(), loader.getValue()));
+            }
+        }
+        if (!memcacheKeys.isEmpty()) {
+            Map<String, Object> values = MemcacheServiceFactory.getMemcacheService().getAll(memcacheKeys);
+            for (String memcacheKey : memcacheKeys) {
+                CacheStats.record(LOCAL_FAMILY, memcacheKey, Event.MISS, 0);
+                Entry entry = new Entry(toAnnouncement(readThrough(memcacheKey, values.get(memcacheKey), loaders.get(memcacheKey))), now, null);
+                ENTRIES.put(memcacheKey, entry);
+                announcements.put(memcacheKey, entry.announcement);
+            }
+        }
+        return announcements;
+    }
+
+    /**
+     * Drops the text cached under the given key on this instance, so its next
+     * read goes to memcache.
+     *
+     * @param memcacheKey
+     *            the memcache key of the text
+     */
+    public static void invalidate(String memcacheKey) {
+        ENTRIES.remove(memcacheKey);
+    }
+
+    /**
+     * Drops every text held by this instance.
+     */
+    public static void clearLocal() {
+        ENTRIES.clear();
+    }
+}
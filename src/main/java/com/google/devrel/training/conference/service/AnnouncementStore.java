@@ -0,0 +1,223 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.IdentifiableValue;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.base.Joiner;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Announcement;
+import com.google.devrel.training.conference.domain.StoredAnnouncement;
+import com.google.devrel.training.conference.service.CacheStats.Event;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Keeps the announcements in the datastore as StoredAnnouncement entities.
+ *
+ * The text of all the active announcements, highest priority first, is cached
+ * in memcache under Constants.MEMCACHE_ANNOUNCEMENTS_KEY and read through
+ * AnnouncementCache. A memcache eviction only costs one ancestor query, so the
+ * announcements no longer disappear until the next cron run.
+ *
+ * After a change the text is rebuilt and written with a compare-and-set, so a
+ * writer that loaded its text before another writer's change can never
+ * overwrite the newer text.
+ */
+public class AnnouncementStore {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    /**
+     * Separates the active announcements in the combined text.
+     */
+    private static final String                         SEPARATOR    = "\n";
+
+    /**
+     * How many compare-and-set attempts are made before the text is deleted,
+     * for the next read to load it again.
+     */
+    private static final int                            CAS_ATTEMPTS = 5;
+
+    private static final Comparator<StoredAnnouncement> BY_PRIORITY  = new Comparator<StoredAnnouncement>() {
+        @Override
+        public int compare(StoredAnnouncement a, StoredAnnouncement b) {
+            if (a.getPriority() != b.getPriority()) {
+                return a.getPriority() > b.getPriority() ? -1 : 1;
+            }
+            return a.getName().compareTo(b.getName());
+        }
+    };
+
+    /**
+     * Loads the combined text from the datastore, for AnnouncementCache.
+     */
+    public static final Callable<String>                LOADER       = new Callable<String>() {
+        @Override
+        public String call() {
+            return loadText();
+        }
+    };
+
+    /* **********************************************************************
+     * INNER CLASSES
+     * **********************************************************************
+     */
+
+    /**
+     * A change to a StoredAnnouncement.
+     */
+    private interface Change {
+        boolean apply(StoredAnnouncement announcement);
+    }
+
+    /* **********************************************************************
+     * PRIVATE METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Saves the announcement if the given change modifies it, then refreshes
+     * the combined text in memcache.
+     *
+     * @param name
+     *            the name of the announcement
+     * @param change
+     *            applies the change, returns true if the announcement changed
+     * @return true if the announcement changed.
+     */
+    private static boolean update(final String name, final Change change) {
+        boolean changed = ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                StoredAnnouncement announcement = ofy().load().key(StoredAnnouncement.keyOf(name)).now();
+                if (announcement == null) {
+                    announcement = new StoredAnnouncement(name);
+                }
+                if (!change.apply(announcement)) {
+                    return false;
+                }
+                ofy().save().entity(announcement).now();
+                return true;
+            }
+        });
+        if (changed) {
+            refreshText();
+            AnnouncementCache.invalidate(Constants.MEMCACHE_ANNOUNCEMENTS_KEY);
+        }
+        return changed;
+    }
+
+    /**
+     * Replaces the combined text in memcache with one loaded after the
+     * current memcache value was read. The write only succeeds if the value
+     * is untouched since, so concurrent writers finishing out of order cannot
+     * leave an older text behind; the losing writer reads again and reloads.
+     */
+    private static void refreshText() {
+        MemcacheService memcache = MemcacheServiceFactory.getMemcacheService();
+        String key = Constants.MEMCACHE_ANNOUNCEMENTS_KEY;
+        for (int attempt = 0; attempt < CAS_ATTEMPTS; attempt++) {
+            IdentifiableValue current = memcache.getIdentifiable(key);
+            String text = loadText();
+            boolean written = current == null
+                    ? memcache.put(key, text, null, SetPolicy.ADD_ONLY_IF_NOT_PRESENT)
+                    : memcache.putIfUntouched(key, current, text);
+            if (written) {
+                CacheStats.record("announcement.memcache", key, Event.SET, CacheStats.sizeOf(text));
+                return;
+            }
+        }
+        // Still contended: let the next read load the text
+        memcache.delete(key);
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Loads the active announcements, highest priority first.
+     *
+     * @return the active announcements.
+     */
+    public static List<StoredAnnouncement> loadActive() {
+        List<StoredAnnouncement> active = new ArrayList<>(ofy().load().type(StoredAnnouncement.class)
+                                                              .ancestor(StoredAnnouncement.BOARD)
+                                                              .filter("active", true)
+                                                              .list());
+        Collections.sort(active, BY_PRIORITY);
+        return active;
+    }
+
+    /**
+     * Builds the combined text of the active announcements from the
+     * datastore.
+     *
+     * @return the combined text, empty if no announcement is active.
+     */
+    public static String loadText() {
+        List<String> messages = new ArrayList<>();
+        for (StoredAnnouncement announcement : loadActive()) {
+            messages.add(announcement.getMessage());
+        }
+        return Joiner.on(SEPARATOR).join(messages);
+    }
+
+    /**
+     * Returns the combined text of the active announcements, from memcache
+     * and from the datastore on a miss.
+     *
+     * @return the announcement, or null if no announcement is active.
+     */
+    public static Announcement get() {
+        return AnnouncementCache.get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY, LOADER);
+    }
+
+    /**
+     * Shows the announcement with the given name.
+     *
+     * @param name
+     *            the name of the announcement
+     * @param message
+     *            the announcement text
+     * @param priority
+     *            the priority of the announcement, higher is shown first
+     * @return true if the announcement changed.
+     */
+    public static boolean publish(String name, final String message, final int priority) {
+        return update(name, new Change() {
+            @Override
+            public boolean apply(StoredAnnouncement announcement) {
+                return announcement.publish(message, priority);
+            }
+        });
+    }
+
+    /**
+     * Stops showing the announcement with the given name.
+     *
+     * @param name
+     *            the name of the announcement
+     * @return true if the announcement was shown.
+     */
+    public static boolean retract(String name) {
+        return update(name, new Change() {
+            @Override
+            public boolean apply(StoredAnnouncement announcement) {
+                return announcement.retract();
+            }
+        });
+    }
+}
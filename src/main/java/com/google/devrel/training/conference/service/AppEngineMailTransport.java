@@ -0,0 +1,70 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.utils.SystemProperty;
+
+import java.io.UnsupportedEncodingException;
+import java.util.Properties;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.Transport;
+import javax.mail.internet.InternetAddress;
+
+/**
+ * Sends the e-mails with the App Engine Mail API, from the application's
+ * noreply address.
+ */
+public class AppEngineMailTransport implements MailTransport {
+
+    private static final Logger LOG = Logger.getLogger(AppEngineMailTransport.class.getName());
+
+    private final InternetAddress sender;
+
+    private final Session         session = Session.getDefaultInstance(new Properties(), null);
+
+    public AppEngineMailTransport() {
+        try {
+            sender = new InternetAddress(String.format("noreply@%s.appspotmail.com", SystemProperty.applicationId.get()), "Conference Central");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Session getSession() {
+        return session;
+    }
+
+    @Override
+    public InternetAddress getSender() {
+        return sender;
+    }
+
+    @Override
+    public Connection connect() throws MessagingException {
+        // "gm" is App Engine's mail transport, the one Transport.send() uses
+        final Transport transport = session.getTransport("gm");
+        transport.connect();
+        return new Connection() {
+
+            @Override
+            public void send(Message message) throws MessagingException {
+                transport.sendMessage(message, message.getAllRecipients());
+            }
+
+            @Override
+            public void close() {
+                try {
+                    transport.close();
+                }
+                catch (MessagingException e) {
+                    LOG.log(Level.WARNING, "Failed to close the mail transport", e);
+                }
+            }
+        };
+    }
+}
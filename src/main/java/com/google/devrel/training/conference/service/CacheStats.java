@@ -0,0 +1,254 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.memcache.Stats;
+import com.google.common.base.Charsets;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.googlecode.objectify.impl.EntityMemcacheStats.Stat;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Per-instance counters of the cache traffic, by cache family: hits, misses,
+ * sets, evictions and payload bytes. A family is a cache tier and a group of
+ * keys, e.g. "announcement.memcache". Hits and misses of the keys given to
+ * record are also counted per key so the hottest keys can be reported. The
+ * per-key counters are bounded: the least recently read keys are dropped, so
+ * a burst of one-off keys cannot hold the slots of the hot ones.
+ *
+ * The report adds the hits and misses of Objectify's @Cache by entity kind,
+ * and the memcache statistics of the whole application. It is served to admins
+ * by CacheStatsServlet. The counters of the instance, without the memcache
+ * statistics which cost an RPC, are logged at most every LOG_INTERVAL_MILLIS
+ * by the first recording after the interval elapsed: front-end instances
+ * cannot run a background thread to log on a timer, and an idle instance has
+ * nothing new to report.
+ */
+public class CacheStats {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+    private static final Logger                          LOG                 = Logger.getLogger(CacheStats.class.getName());
+
+    /**
+     * How often the report is logged.
+     */
+    private static final long                            LOG_INTERVAL_MILLIS = 5 * 60 * 1000;
+
+    /**
+     * Maximum number of distinct keys counted, the least recently read ones
+     * are dropped beyond it.
+     */
+    private static final int                             MAX_KEYS            = 1000;
+
+    /**
+     * Number of keys listed in the report.
+     */
+    private static final int                             HOT_KEYS_REPORTED   = 10;
+
+    private static final ConcurrentMap<String, Counters> FAMILIES            = new ConcurrentHashMap<>();
+
+    private static final LoadingCache<String, AtomicLong> KEYS               = CacheBuilder.newBuilder()
+                                                                                .maximumSize(MAX_KEYS)
+                                                                                .build(new CacheLoader<String, AtomicLong>() {
+                                                                                    @Override
+                                                                                    public AtomicLong load(String familyKey) {
+                                                                                        return new AtomicLong();
+                                                                                    }
+                                                                                });
+
+    private static final AtomicLong                      NEXT_LOG_AT         = new AtomicLong(System.currentTimeMillis() + LOG_INTERVAL_MILLIS);
+
+    /* **********************************************************************
+     * ENUMS
+     * **********************************************************************
+     */
+
+    /**
+     * What happened to a cache entry.
+     */
+    public enum Event {
+        HIT, MISS, SET, EVICTION
+    }
+
+    /* **********************************************************************
+     * INNER CLASSES
+     * **********************************************************************
+     */
+
+    /**
+     * The counters of one family.
+     */
+    private static class Counters {
+
+        private final AtomicLong[] events = new AtomicLong[Event.values().length];
+        private final AtomicLong   bytes  = new AtomicLong();
+
+        private Counters() {
+            for (int i = 0; i < events.length; i++) {
+                events[i] = new AtomicLong();
+            }
+        }
+
+        private long get(Event event) {
+            return events[event.ordinal()].get();
+        }
+    }
+
+    /* **********************************************************************
+     * PRIVATE METHODS
+     * **********************************************************************
+     */
+
+    private static Counters counters(String family) {
+        Counters counters = FAMILIES.get(family);
+        if (counters == null) {
+            FAMILIES.putIfAbsent(family, new Counters());
+            counters = FAMILIES.get(family);
+        }
+        return counters;
+    }
+
+    private static String line(String family, long hits, long misses, long sets, long evictions, long bytes) {
+        long reads = hits + misses;
+        return String.format("cache family=%s hits=%d misses=%d sets=%d evictions=%d bytes=%d hitRate=%.3f",
+                        family, hits, misses, sets, evictions, bytes, reads == 0 ? 0f : (float) hits / reads);
+    }
+
+    /**
+     * Logs the counters of the instance if LOG_INTERVAL_MILLIS elapsed since
+     * the last time, on one thread only. It runs on the request path, so it
+     * only reads local counters.
+     */
+    private static void logIfDue() {
+        long now = System.currentTimeMillis();
+        long nextLogAt = NEXT_LOG_AT.get();
+        if (now >= nextLogAt && NEXT_LOG_AT.compareAndSet(nextLogAt, now + LOG_INTERVAL_MILLIS)) {
+            for (String line : report(false)) {
+                LOG.info(line);
+            }
+        }
+    }
+
+    /**
+     * Builds the report, one structured line per family, per Objectify kind,
+     * optionally for memcache as a whole, and per hot key.
+     *
+     * @param withMemcache
+     *            whether to fetch the memcache statistics, an RPC
+     * @return the lines of the report.
+     */
+    private static List<String> report(boolean withMemcache) {
+        List<String> lines = new ArrayList<>();
+        for (Map.Entry<String, Counters> family : new TreeMap<>(FAMILIES).entrySet()) {
+            Counters c = family.getValue();
+            lines.add(line(family.getKey(), c.get(Event.HIT), c.get(Event.MISS), c.get(Event.SET), c.get(Event.EVICTION), c.bytes.get()));
+        }
+
+        for (Map.Entry<String, Stat> kind : new TreeMap<>(OfyService.factory().getMemcacheStats().getStats()).entrySet()) {
+            lines.add(line("ofy." + kind.getKey(), kind.getValue().getHits(), kind.getValue().getMisses(), 0, 0, 0));
+        }
+
+        Stats memcache = withMemcache ? MemcacheServiceFactory.getMemcacheService().getStatistics() : null;
+        if (memcache != null) {
+            lines.add(String.format("memcache items=%d bytes=%d hits=%d misses=%d bytesReturned=%d oldestItemAgeMillis=%d",
+                            memcache.getItemCount(), memcache.getTotalItemBytes(), memcache.getHitCount(),
+                            memcache.getMissCount(), memcache.getBytesReturnedForHits(), memcache.getMaxTimeWithoutAccess()));
+        }
+
+        List<Map.Entry<String, AtomicLong>> keys = new ArrayList<>(KEYS.asMap().entrySet());
+        Collections.sort(keys, new Comparator<Map.Entry<String, AtomicLong>>() {
+            @Override
+            public int compare(Map.Entry<String, AtomicLong> a, Map.Entry<String, AtomicLong> b) {
+                return Long.compare(b.getValue().get(), a.getValue().get());
+            }
+        });
+        for (Map.Entry<String, AtomicLong> key : keys.subList(0, Math.min(HOT_KEYS_REPORTED, keys.size()))) {
+            String[] familyKey = key.getKey().split(" ", 2);
+            lines.add(String.format("hotKey family=%s key=%s reads=%d", familyKey[0], familyKey[1], key.getValue().get()));
+        }
+        return lines;
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Records an event of a family.
+     *
+     * @param family
+     *            the cache family
+     * @param event
+     *            what happened
+     */
+    public static void record(String family, Event event) {
+        counters(family).events[event.ordinal()].incrementAndGet();
+        logIfDue();
+    }
+
+    /**
+     * Records an event of a family on the given key.
+     *
+     * @param family
+     *            the cache family
+     * @param key
+     *            the cache key
+     * @param event
+     *            what happened
+     * @param bytes
+     *            the size of the value read or written, 0 if unknown
+     */
+    public static void record(String family, String key, Event event, long bytes) {
+        Counters counters = counters(family);
+        counters.events[event.ordinal()].incrementAndGet();
+        counters.bytes.addAndGet(bytes);
+        if (event == Event.HIT || event == Event.MISS) {
+            KEYS.getUnchecked(family + " " + key).incrementAndGet();
+        }
+        logIfDue();
+    }
+
+    /**
+     * Returns the size in bytes of a text payload.
+     *
+     * @param text
+     *            the payload, may be null
+     * @return its UTF-8 size.
+     */
+    public static long sizeOf(String text) {
+        return text == null ? 0 : text.getBytes(Charsets.UTF_8).length;
+    }
+
+    /**
+     * Builds the report, including the memcache statistics of the whole
+     * application.
+     *
+     * @return the lines of the report.
+     */
+    public static List<String> report() {
+        return report(true);
+    }
+
+    /**
+     * Resets every counter of this instance.
+     */
+    public static void clear() {
+        FAMILIES.clear();
+        KEYS.invalidateAll();
+    }
+}
@@ -0,0 +1,305 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.CacheStats.Event;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-process LRU cache of Conference entities, in front of Objectify's
+ * memcache-backed @Cache.
+ *
+ * Each conference has a version stamp in memcache, bumped by invalidate()
+ * whenever the conference changes. A cached conference is served without any
+ * RPC for VALIDATION_INTERVAL_MILLIS after it was last validated; after that
+ * its version is compared with the stamp (one small memcache get) and the
+ * conference is reloaded if another instance changed it. Instances therefore
+ * converge within VALIDATION_INTERVAL_MILLIS, and the instance making the
+ * change sees it immediately.
+ *
+ * A conference is held as its datastore Entity, like Objectify's own @Cache
+ * does, and every read gets its own Conference translated from it: a caller
+ * changing the returned conference cannot change what other threads read.
+ */
+public class ConferenceCache {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    /**
+     * Maximum number of conferences held per instance.
+     */
+    private static final int                  MAXIMUM_SIZE               = 1000;
+
+    /**
+     * How long a cached conference is served before checking its stamp.
+     */
+    private static final long                 VALIDATION_INTERVAL_MILLIS = 1000;
+
+    private static final String               VERSION_KEY_PREFIX         = "CONFERENCE_VERSION:";
+
+    private static final String               FAMILY                     = "conference.local";
+
+    private static final Cache<String, Entry> LOCAL                      = CacheBuilder.newBuilder()
+                                                                                .maximumSize(MAXIMUM_SIZE)
+                                                                                .removalListener(new RemovalListener<String, Entry>() {
+                                                                                    @Override
+                                                                                    public void onRemoval(RemovalNotification<String, Entry> notification) {
+                                                                                        if (notification.wasEvicted()) {
+                                                                                            CacheStats.record(FAMILY, Event.EVICTION);
+                                                                                        }
+                                                                                    }
+                                                                                })
+                                                                                .build();
+
+    /* **********************************************************************
+     * INNER CLASSES
+     * **********************************************************************
+     */
+
+    /**
+     * A cached conference along with the version stamp it was loaded at.
+     */
+    private static class Entry {
+
+        private final Entity entity;
+        private final long   version;
+        private volatile long validatedAt;
+
+        private Entry(Conference conference, long version, long validatedAt) {
+            this.entity = ofy().save().toEntity(conference);
+            this.version = version;
+            this.validatedAt = validatedAt;
+        }
+
+        /**
+         * Returns a new copy of the cached conference.
+         */
+        private Conference conference() {
+            return ofy().load().<Conference> fromEntity(entity);
+        }
+    }
+
+    /* **********************************************************************
+     * PRIVATE METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the current version stamp of a conference, creating it when it
+     * is missing (never set, or evicted). A recreated stamp starts at the
+     * current time, so it cannot match a version cached before the eviction.
+     *
+     * @param memcacheService
+     *            the memcache service
+     * @param websafeConferenceKey
+     *            the websafe key of the conference
+     * @param delta
+     *            1 to bump the stamp, 0 to read it
+     * @return the version stamp, or null if memcache is unavailable.
+     */
+    private static Long version(MemcacheService memcacheService, String websafeConferenceKey, long delta) {
+        return memcacheService.increment(VERSION_KEY_PREFIX + websafeConferenceKey, delta, System.currentTimeMillis());
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the conference with the given key.
+     *
+     * @param websafeConferenceKey
+     *            the websafe key of the conference
+     * @return the conference, or null if there is none or the key cannot be
+     *         parsed.
+     */
+    public static Conference get(String websafeConferenceKey) {
+        long now = System.currentTimeMillis();
+        Entry entry = LOCAL.getIfPresent(websafeConferenceKey);
+        if (entry != null && now - entry.validatedAt < VALIDATION_INTERVAL_MILLIS) {
+            CacheStats.record(FAMILY, websafeConferenceKey, Event.HIT, 0);
+            return entry.conference();
+        }
+
+        Key<Conference> conferenceKey = MissingKeyCache.parse(websafeConferenceKey);
+        if (conferenceKey == null) {
+            return null;
+        }
+
+        // Read the stamp before loading, so a change committed in between
+        // makes the next validation fail rather than being missed
+        Long version = version(MemcacheServiceFactory.getMemcacheService(), websafeConferenceKey, 0L);
+        if (entry != null && version != null && entry.version == version) {
+            entry.validatedAt = now;
+            CacheStats.record(FAMILY, websafeConferenceKey, Event.HIT, 0);
+            return entry.conference();
+        }
+        CacheStats.record(FAMILY, websafeConferenceKey, Event.MISS, 0);
+
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference == null) {
+            MissingKeyCache.markMissing(websafeConferenceKey);
+        }
+        if (conference != null && version != null) {
+            LOCAL.put(websafeConferenceKey, new Entry(conference, version, now));
+            CacheStats.record(FAMILY, Event.SET);
+        }
+        else {
+            LOCAL.invalidate(websafeConferenceKey);
+        }
+        return conference;
+    }
+
+    /**
+     * Returns the conferences with the given keys, like get() but with at most
+     * one memcache call for the stamps and one batch get for the conferences
+     * to reload.
+     *
+     * @param websafeConferenceKeys
+     *            the websafe keys of the conferences
+     * @return the conferences found, in the order of the keys.
+     */
+    public static Map<String, Conference> getAll(Collection<String> websafeConferenceKeys) {
+        long now = System.currentTimeMillis();
+        Map<String, Conference> conferences = new LinkedHashMap<>();
+        Map<String, Entry> stale = new HashMap<>();
+        List<String> versionKeys = new ArrayList<>();
+        for (String websafeConferenceKey : websafeConferenceKeys) {
+            Entry entry = LOCAL.getIfPresent(websafeConferenceKey);
+            if (entry != null && now - entry.validatedAt < VALIDATION_INTERVAL_MILLIS) {
+                CacheStats.record(FAMILY, websafeConferenceKey, Event.HIT, 0);
+                conferences.put(websafeConferenceKey, entry.conference());
+            }
+            else {
+                stale.put(websafeConferenceKey, entry);
+                versionKeys.add(VERSION_KEY_PREFIX + websafeConferenceKey);
+                // Keep the order of the keys, the value is set below
+                conferences.put(websafeConferenceKey, null);
+            }
+        }
+        if (stale.isEmpty()) {
+            return conferences;
+        }
+
+        // Read the stamps before loading, as get() does
+        Map<String, Long> versions = MemcacheServiceFactory.getMemcacheService().incrementAll(versionKeys, 0L, now);
+        Map<Key<Conference>, String> toLoad = new HashMap<>();
+        Map<String, Long> loadVersions = new HashMap<>();
+        for (Map.Entry<String, Entry> e : stale.entrySet()) {
+            Long version = versions.get(VERSION_KEY_PREFIX + e.getKey());
+            Entry entry = e.getValue();
+            if (entry != null && version != null && entry.version == version) {
+                entry.validatedAt = now;
+                CacheStats.record(FAMILY, e.getKey(), Event.HIT, 0);
+                conferences.put(e.getKey(), entry.conference());
+            }
+            else {
+                // Skipped, as by get(), when malformed or known to be missing
+                Key<Conference> conferenceKey = MissingKeyCache.parse(e.getKey());
+                if (conferenceKey != null) {
+                    CacheStats.record(FAMILY, e.getKey(), Event.MISS, 0);
+                    toLoad.put(conferenceKey, e.getKey());
+                    loadVersions.put(e.getKey(), version);
+                }
+            }
+        }
+
+        Map<Key<Conference>, Conference> loaded = ofy().load().keys(toLoad.keySet());
+        for (Map.Entry<Key<Conference>, String> e : toLoad.entrySet()) {
+            String websafeConferenceKey = e.getValue();
+            Long version = loadVersions.get(websafeConferenceKey);
+            Conference conference = loaded.get(e.getKey());
+            conferences.put(websafeConferenceKey, conference);
+            if (conference == null) {
+                MissingKeyCache.markMissing(websafeConferenceKey);
+            }
+            if (conference != null && version != null) {
+                LOCAL.put(websafeConferenceKey, new Entry(conference, version, now));
+                CacheStats.record(FAMILY, Event.SET);
+            }
+            else {
+                LOCAL.invalidate(websafeConferenceKey);
+            }
+        }
+        conferences.values().removeAll(Collections.singleton(null));
+        return conferences;
+    }
+
+    /**
+     * Puts already loaded conferences in this instance, reading all their
+     * version stamps with one memcache call. Used to warm up new instances.
+     *
+     * @param conferences
+     *            the conferences to hold
+     */
+    public static void preload(Collection<Conference> conferences) {
+        long now = System.currentTimeMillis();
+        List<String> versionKeys = new ArrayList<>(conferences.size());
+        for (Conference conference : conferences) {
+            versionKeys.add(VERSION_KEY_PREFIX + conference.getWebsafeKey());
+        }
+        Map<String, Long> versions = MemcacheServiceFactory.getMemcacheService().incrementAll(versionKeys, 0L, now);
+        for (Conference conference : conferences) {
+            Long version = versions.get(VERSION_KEY_PREFIX + conference.getWebsafeKey());
+            if (version != null) {
+                LOCAL.put(conference.getWebsafeKey(), new Entry(conference, version, now));
+                CacheStats.record(FAMILY, Event.SET);
+            }
+        }
+    }
+
+    /**
+     * Drops a conference from this instance and bumps its version stamp, so
+     * other instances reload it. Call after the change has been committed.
+     *
+     * @param websafeConferenceKey
+     *            the websafe key of the conference
+     */
+    public static void invalidate(String websafeConferenceKey) {
+        LOCAL.invalidate(websafeConferenceKey);
+        version(MemcacheServiceFactory.getMemcacheService(), websafeConferenceKey, 1L);
+        CacheStats.record("conference.version", Event.SET);
+    }
+
+    /**
+     * Drops every conference held by this instance.
+     */
+    public static void clearLocal() {
+        LOCAL.invalidateAll();
+    }
+
+    /**
+     * Forces the next get of a conference to check its version stamp.
+     *
+     * @param websafeConferenceKey
+     *            the websafe key of the conference
+     */
+    @VisibleForTesting
+    static void expireValidation(String websafeConferenceKey) {
+        Entry entry = LOCAL.getIfPresent(websafeConferenceKey);
+        if (entry != null) {
+            entry.validatedAt = 0;
+        }
+    }
+}
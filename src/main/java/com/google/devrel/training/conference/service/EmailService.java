@@ -0,0 +1,620 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+import com.google.appengine.api.utils.SystemProperty;
+import com.google.common.collect.ImmutableMap;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.DeadLetterEmail;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.service.MailTransport.Connection;
+import com.googlecode.objectify.Key;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.AddressException;
+import javax.mail.internet.InternetAddress;
+import javax.mail.internet.MimeMessage;
+
+/**
+ * Sends the notification e-mails in batches. The notifications are pull tasks
+ * of the "email" queue, enqueued in the transaction of the change they
+ * notify, carrying only the e-mail type and the key of the entity.
+ * deliverBatch() leases up to BATCH_SIZE of them, loads their entities with
+ * one batch get, renders them with the precompiled TEMPLATES, coalesces the
+ * notifications to the same recipient into one digest, and sends all the
+ * messages over one connection of the MailTransport.
+ *
+ * SendConfirmationEmailServlet runs deliverBatch() until the queue is empty.
+ * It is started by a push task enqueued with the first notification of every
+ * KICK_DELAY_SECONDS window, so a burst of notifications is delivered by a few
+ * batches instead of one task each. Notifications backed off after a failure,
+ * or put aside by an open breaker, are only leasable again once their lease
+ * runs out, long after that run: the cron run of the worker, every minute,
+ * leases them then.
+ */
+public class EmailService {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    private static final Logger LOG                = Logger.getLogger(EmailService.class.getName());
+
+    private static final String QUEUE              = "email";
+
+    private static final String WORKER_URL         = "/tasks/send_confirmation_email";
+
+    /**
+     * Maximum number of notifications leased at once.
+     */
+    public static final int     BATCH_SIZE         = 100;
+
+    /**
+     * How long the leased notifications are reserved, after which they are
+     * leased again if they were not deleted.
+     */
+    private static final long   LEASE_SECONDS      = 60;
+
+    /**
+     * How long notifications are gathered before the worker runs.
+     */
+    private static final int    KICK_DELAY_SECONDS = 5;
+
+    private static final String MEMCACHE_KICK_KEY  = "EMAIL_WORKER_KICKED";
+
+    /**
+     * Number of delivery attempts after which a notification is given up on.
+     */
+    private static final int    MAX_ATTEMPTS       = 8;
+
+    /**
+     * The delay before the second attempt, doubled at each further attempt.
+     */
+    private static final long   BACKOFF_SECONDS    = 30;
+
+    /**
+     * The longest delay between two attempts.
+     */
+    private static final long   MAX_BACKOFF_SECONDS = 60 * 60;
+
+    /**
+     * The transport the e-mails are sent with, kept in memory when not
+     * running on App Engine nor in its development server.
+     */
+    private static volatile MailTransport transport = SystemProperty.environment.value() == null
+                    ? new InMemoryMailTransport() : new AppEngineMailTransport();
+
+    /**
+     * The templates of the notifications, by e-mail type.
+     */
+    private static final Map<String, EmailTemplate> TEMPLATES = ImmutableMap.of(
+                    Constants.NEW_CONFERENCE, new EmailTemplate("You created a new Conference!",
+                                    "Hi, you have created a following conference.\n{details}"),
+                    Constants.NEW_SESSION, new EmailTemplate("You created a new Session!",
+                                    "Hi, you have created a following session.\n{details}"));
+
+    /* **********************************************************************
+     * INNER CLASSES
+     * **********************************************************************
+     */
+
+    /**
+     * A notification, read from a leased task and rendered once its entity is
+     * loaded.
+     */
+    private static class Notification {
+
+        private int         attempts;
+        private String      body;
+        private String      email;
+        private long        enqueued;
+        private Key<Object> key;
+        private String      subject;
+        private String      type;
+
+        /**
+         * Renders the notification for the created entity.
+         *
+         * @return false if there is no template for its type.
+         */
+        private boolean render(String email, String details) {
+            EmailTemplate template = TEMPLATES.get(type);
+            if (template == null) {
+                return false;
+            }
+            this.email = email;
+            this.subject = template.getSubject();
+            this.body = template.render(Collections.singletonMap("details", details));
+            return true;
+        }
+    }
+
+    /**
+     * What a batch delivered, for the throughput report.
+     */
+    public static class BatchReport {
+
+        private int  deadLettered;
+        private int  deferred;
+        private int  failed;
+        private long maxLatencyMillis;
+        private int  messages;
+        private int  notifications;
+
+        /**
+         * @return the number of notifications leased.
+         */
+        public int getNotifications() {
+            return notifications;
+        }
+
+        /**
+         * @return the number of messages sent, digests counting once.
+         */
+        public int getMessages() {
+            return messages;
+        }
+
+        /**
+         * @return the number of messages that failed.
+         */
+        public int getFailed() {
+            return failed;
+        }
+
+        /**
+         * @return the number of notifications given up on, saved as
+         *         DeadLetterEmail.
+         */
+        public int getDeadLettered() {
+            return deadLettered;
+        }
+
+        /**
+         * @return the number of notifications put aside as the breaker of
+         *         their recipient is open.
+         */
+        public int getDeferred() {
+            return deferred;
+        }
+
+        /**
+         * @return the longest time a delivered notification waited.
+         */
+        public long getMaxLatencyMillis() {
+            return maxLatencyMillis;
+        }
+    }
+
+    /* **********************************************************************
+     * PRIVATE METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Reads a notification. The notifications enqueued before they carried a
+     * key are rendered at once, from the text they carry.
+     */
+    private static Notification read(TaskHandle task) throws UnsupportedEncodingException {
+        Notification notification = new Notification();
+        notification.attempts = task.getRetryCount() == null ? 1 : task.getRetryCount() + 1;
+        String email = null;
+        String info = null;
+        for (Map.Entry<String, String> param : task.extractParams()) {
+            switch (param.getKey()) {
+                case "key":
+                    notification.key = Key.create(param.getValue());
+                    break;
+                case "emailType":
+                    notification.type = param.getValue();
+                    break;
+                case "email":
+                    email = param.getValue();
+                    break;
+                case "info":
+                    info = param.getValue();
+                    break;
+                case "enqueued":
+                    notification.enqueued = Long.parseLong(param.getValue());
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (notification.key == null && email != null) {
+            notification.render(email, info);
+        }
+        return notification;
+    }
+
+    /**
+     * Renders the notifications for their entities, as they are now. The
+     * entities and the profiles of their organizers, the recipients, are
+     * loaded with one batch get.
+     *
+     * @param notifications
+     *            the notifications to render
+     * @return the notifications that cannot be rendered, as their entity or
+     *         recipient is gone.
+     */
+    private static List<Notification> render(List<Notification> notifications) {
+        Set<Key<Object>> keys = new HashSet<>();
+        for (Notification notification : notifications) {
+            if (notification.key != null) {
+                keys.add(notification.key);
+                keys.add(notification.key.getRoot());
+            }
+        }
+        Map<Key<Object>, Object> entities = ofy().load().keys(keys);
+
+        List<Notification> failed = new ArrayList<>();
+        for (Notification notification : notifications) {
+            if (notification.key == null) {
+                if (notification.email == null) {
+                    failed.add(notification);
+                }
+                continue;
+            }
+            Object entity = entities.get(notification.key);
+            Object organizer = entities.get(notification.key.getRoot());
+            if (entity == null || !(organizer instanceof Profile)
+                            || !notification.render(((Profile) organizer).getMainEmail(), entity.toString())) {
+                failed.add(notification);
+            }
+        }
+        return failed;
+    }
+
+    /**
+     * Postpones the next lease of tasks: the lease of a pull task is its retry
+     * delay. They are leased again by the first worker run after it, at the
+     * latest the cron run of the next minute.
+     */
+    private static void postpone(Queue queue, List<TaskHandle> tasks, long seconds) {
+        for (TaskHandle task : tasks) {
+            queue.modifyTaskLease(task, seconds, TimeUnit.SECONDS);
+        }
+    }
+
+    private static DeadLetterEmail deadLetter(Notification notification, String reason) {
+        return new DeadLetterEmail(notification.email, notification.type,
+                        notification.key == null ? null : notification.key.getString(), notification.attempts, reason);
+    }
+
+    /**
+     * Builds the message to a recipient, a digest if there are several
+     * notifications.
+     */
+    private static Message compose(String email, List<Notification> notifications)
+                    throws MessagingException, UnsupportedEncodingException {
+        String subject;
+        StringBuilder body = new StringBuilder();
+        if (notifications.size() == 1) {
+            subject = notifications.get(0).subject;
+            body.append(notifications.get(0).body);
+        }
+        else {
+            subject = String.format("You have %d new notifications", notifications.size());
+            for (Notification notification : notifications) {
+                if (body.length() > 0) {
+                    body.append("\n\n----------\n\n");
+                }
+                body.append(notification.body);
+            }
+        }
+        return createMessage(email, subject, body.toString());
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Tells whether a delivery failure is permanent, so retrying the same
+     * message cannot succeed: an invalid address, or a message the Mail API
+     * refuses.
+     *
+     * @param e
+     *            the failure
+     * @return true if the failure is permanent.
+     */
+    public static boolean isPermanent(Exception e) {
+        if (e instanceof AddressException || e instanceof UnsupportedEncodingException) {
+            return true;
+        }
+        if (e instanceof SendFailedException) {
+            Address[] invalid = ((SendFailedException) e).getInvalidAddresses();
+            return invalid != null && invalid.length > 0;
+        }
+        // The Mail API reports a refused message, e.g. an unauthorized sender,
+        // as an IllegalArgumentException, wrapped in the MessagingException
+        return e instanceof MessagingException && ((MessagingException) e).getNextException() instanceof IllegalArgumentException
+                        || e.getCause() instanceof IllegalArgumentException;
+    }
+
+    /**
+     * @return the transport the e-mails are sent with.
+     */
+    public static MailTransport getTransport() {
+        return transport;
+    }
+
+    /**
+     * Replaces the transport the e-mails are sent with.
+     *
+     * @param transport
+     *            the new transport
+     */
+    public static void setTransport(MailTransport transport) {
+        EmailService.transport = transport;
+    }
+
+    /**
+     * Builds a message from Conference Central, in the session of the
+     * transport.
+     *
+     * @param email
+     *            the recipient
+     * @param subject
+     *            the subject
+     * @param body
+     *            the text of the message
+     * @return the message.
+     * @throws MessagingException
+     *             if an address is invalid.
+     * @throws UnsupportedEncodingException
+     *             if the sender name cannot be encoded.
+     */
+    public static Message createMessage(String email, String subject, String body)
+                    throws MessagingException, UnsupportedEncodingException {
+        MailTransport transport = EmailService.transport;
+        Message message = new MimeMessage(transport.getSession());
+        message.setFrom(transport.getSender());
+        message.addRecipient(Message.RecipientType.TO, new InternetAddress(email, ""));
+        message.setSubject(subject);
+        message.setText(body);
+        return message;
+    }
+
+    /**
+     * Sends a single message, over its own connection.
+     *
+     * @param email
+     *            the recipient
+     * @param subject
+     *            the subject
+     * @param body
+     *            the text of the message
+     * @throws MessagingException
+     *             if the message cannot be sent.
+     * @throws UnsupportedEncodingException
+     *             if the sender name cannot be encoded.
+     */
+    public static void send(String email, String subject, String body)
+                    throws MessagingException, UnsupportedEncodingException {
+        Connection connection = transport.connect();
+        try {
+            connection.send(createMessage(email, subject, body));
+        }
+        finally {
+            connection.close();
+        }
+    }
+
+    /**
+     * Enqueues a notification e-mail. Must be called in the transaction of the
+     * change notified, so the e-mail is sent only if it commits.
+     *
+     * The task only carries the key of the created entity: the e-mail is
+     * rendered when it is sent, from the entity as it is then, and sent to
+     * the organizer, the Profile at the root of the key.
+     *
+     * @param emailType
+     *            Constants.NEW_CONFERENCE or Constants.NEW_SESSION
+     * @param key
+     *            the key of the created entity
+     */
+    public static void enqueue(String emailType, Key<?> key) {
+        QueueFactory.getQueue(QUEUE).add(ofy().getTransaction(),
+                        notification(emailType, key.getString(), System.currentTimeMillis()));
+        kick();
+    }
+
+    /**
+     * Builds the task of a notification e-mail, for enqueue(List).
+     *
+     * @param emailType
+     *            Constants.NEW_CONFERENCE or Constants.NEW_SESSION
+     * @param websafeKey
+     *            the websafe key of the created entity
+     * @param enqueued
+     *            when the notification was first recorded, in milliseconds
+     * @return the pull task of the notification.
+     */
+    public static TaskOptions notification(String emailType, String websafeKey, long enqueued) {
+        return TaskOptions.Builder.withMethod(Method.PULL)
+                        .param("emailType", emailType)
+                        .param("key", websafeKey)
+                        .param("enqueued", Long.toString(enqueued));
+    }
+
+    /**
+     * Enqueues notification e-mails outside of any transaction, with one
+     * batch add. Named tasks already enqueued are skipped, so a caller that
+     * is retried names its notifications to enqueue them only once.
+     *
+     * @param notifications
+     *            the tasks built by notification()
+     */
+    public static void enqueue(List<TaskOptions> notifications) {
+        if (notifications.isEmpty()) {
+            return;
+        }
+        try {
+            QueueFactory.getQueue(QUEUE).add(null, notifications);
+        }
+        catch (TaskAlreadyExistsException e) {
+            // The other tasks of the batch are still added
+            LOG.info("Skipped notifications already enqueued: " + e.getTaskNames());
+        }
+        kick();
+    }
+
+    /**
+     * Starts the worker in KICK_DELAY_SECONDS, unless it was already started
+     * for the current window. The worker is started outside of any
+     * transaction: if the notification does not commit, it only finds an
+     * empty queue.
+     */
+    public static void kick() {
+        if (MemcacheServiceFactory.getMemcacheService().put(MEMCACHE_KICK_KEY, Boolean.TRUE,
+                        Expiration.byDeltaSeconds(KICK_DELAY_SECONDS), SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+            QueueFactory.getDefaultQueue().add(null,
+                            TaskOptions.Builder.withUrl(WORKER_URL).countdownMillis(KICK_DELAY_SECONDS * 1000));
+        }
+    }
+
+    /**
+     * Leases a batch of notifications and sends them, one digest per
+     * recipient, over one transport connection.
+     *
+     * The notifications of a message failing permanently, or for the
+     * MAX_ATTEMPTS time, are saved as DeadLetterEmail and removed from the
+     * queue. After a transient failure they are leased again after an
+     * exponential backoff. The notifications to a recipient whose
+     * MailCircuitBreaker is open are put aside until it closes.
+     *
+     * @return what was delivered.
+     * @throws MessagingException
+     *             if the transport cannot be connected.
+     */
+    public static BatchReport deliverBatch() throws MessagingException {
+        BatchReport report = new BatchReport();
+        Queue queue = QueueFactory.getQueue(QUEUE);
+        List<TaskHandle> tasks = queue.leaseTasks(LEASE_SECONDS, TimeUnit.SECONDS, BATCH_SIZE);
+        report.notifications = tasks.size();
+        if (tasks.isEmpty()) {
+            return report;
+        }
+
+        List<TaskHandle> done = new ArrayList<>(tasks.size());
+        Map<Notification, TaskHandle> notifications = new LinkedHashMap<>();
+        for (TaskHandle task : tasks) {
+            try {
+                notifications.put(read(task), task);
+            }
+            catch (UnsupportedEncodingException | IllegalArgumentException | UnsupportedOperationException e) {
+                LOG.log(Level.WARNING, "Dropping unreadable notification " + task.getName(), e);
+                done.add(task);
+            }
+        }
+        for (Notification notification : render(new ArrayList<>(notifications.keySet()))) {
+            TaskHandle task = notifications.remove(notification);
+            LOG.warning("Dropping notification of a deleted entity " + task.getName());
+            done.add(task);
+        }
+
+        // Group the notifications by recipient, in lease order
+        Map<String, List<TaskHandle>> tasksByEmail = new LinkedHashMap<>();
+        Map<String, List<Notification>> notificationsByEmail = new LinkedHashMap<>();
+        for (Map.Entry<Notification, TaskHandle> entry : notifications.entrySet()) {
+            Notification notification = entry.getKey();
+            TaskHandle task = entry.getValue();
+            if (!tasksByEmail.containsKey(notification.email)) {
+                tasksByEmail.put(notification.email, new ArrayList<TaskHandle>());
+                notificationsByEmail.put(notification.email, new ArrayList<Notification>());
+            }
+            tasksByEmail.get(notification.email).add(task);
+            notificationsByEmail.get(notification.email).add(notification);
+        }
+
+        for (String email : MailCircuitBreaker.open(notificationsByEmail.keySet())) {
+            List<TaskHandle> deferred = tasksByEmail.remove(email);
+            notificationsByEmail.remove(email);
+            postpone(queue, deferred, MailCircuitBreaker.OPEN_SECONDS);
+            report.deferred += deferred.size();
+        }
+
+        List<String> sent = new ArrayList<>(notificationsByEmail.size());
+        List<DeadLetterEmail> deadLetters = new ArrayList<>();
+        Connection connection = transport.connect();
+        try {
+            long now = System.currentTimeMillis();
+            for (Map.Entry<String, List<Notification>> entry : notificationsByEmail.entrySet()) {
+                String email = entry.getKey();
+                List<TaskHandle> emailTasks = tasksByEmail.get(email);
+                try {
+                    connection.send(compose(email, entry.getValue()));
+                    done.addAll(emailTasks);
+                    sent.add(email);
+                    report.messages++;
+                    for (Notification notification : entry.getValue()) {
+                        report.maxLatencyMillis = Math.max(report.maxLatencyMillis, now - notification.enqueued);
+                    }
+                }
+                catch (MessagingException | UnsupportedEncodingException e) {
+                    report.failed++;
+                    boolean permanent = isPermanent(e);
+                    LOG.log(Level.WARNING, String.format("Failed %s to send an mail to %s",
+                                    permanent ? "permanently" : "transiently", email), e);
+                    if (!permanent && MailCircuitBreaker.recordFailure(email)) {
+                        LOG.warning(String.format("Breaker of %s open for %d s", email, MailCircuitBreaker.OPEN_SECONDS));
+                    }
+                    for (int i = 0; i < emailTasks.size(); i++) {
+                        Notification notification = entry.getValue().get(i);
+                        TaskHandle task = emailTasks.get(i);
+                        if (permanent || notification.attempts >= MAX_ATTEMPTS) {
+                            deadLetters.add(deadLetter(notification, e.toString()));
+                            done.add(task);
+                        }
+                        else {
+                            // Pull tasks have no retry options: extending the
+                            // lease stands in for them, the cron run of the
+                            // worker leases the task again once it runs out
+                            long backoff = Math.min(MAX_BACKOFF_SECONDS, BACKOFF_SECONDS << Math.min(notification.attempts - 1, 20));
+                            queue.modifyTaskLease(task, backoff, TimeUnit.SECONDS);
+                        }
+                    }
+                }
+            }
+        }
+        finally {
+            connection.close();
+        }
+        if (!sent.isEmpty()) {
+            MailCircuitBreaker.recordSuccess(sent);
+        }
+        if (!deadLetters.isEmpty()) {
+            ofy().save().entities(deadLetters).now();
+            report.deadLettered = deadLetters.size();
+        }
+        queue.deleteTask(done);
+        return report;
+    }
+}
@@ -0,0 +1,91 @@
+package com.google.devrel.training.conference.service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A text template with {name} placeholders, split once into its literal and
+ * placeholder parts so rendering is only an append of each part. Templates
+ * are immutable, hence shared by all threads.
+ */
+public class EmailTemplate {
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * The parts of the body, placeholders at the odd indexes.
+     */
+    private final List<String> parts;
+
+    private final String       subject;
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
+    /**
+     * Compiles a template.
+     *
+     * @param subject
+     *            the subject of the messages
+     * @param body
+     *            the body, with {name} placeholders
+     */
+    public EmailTemplate(String subject, String body) {
+        List<String> parts = new ArrayList<>();
+        int from = 0;
+        int open;
+        while ((open = body.indexOf('{', from)) >= 0) {
+            int close = body.indexOf('}', open);
+            if (close < 0) {
+                throw new IllegalArgumentException("Unclosed placeholder in " + body);
+            }
+            parts.add(body.substring(from, open));
+            parts.add(body.substring(open + 1, close));
+            from = close + 1;
+        }
+        parts.add(body.substring(from));
+        this.parts = Collections.unmodifiableList(parts);
+        this.subject = subject;
+    }
+
+    /* **********************************************************************
+     * SETTERS AND GETTERS FOR ATTRIBUTES
+     * **********************************************************************
+     */
+
+    public String getSubject() {
+        return subject;
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Renders the body.
+     *
+     * @param values
+     *            the values of the placeholders, missing ones render empty
+     * @return the body.
+     */
+    public String render(Map<String, String> values) {
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < parts.size(); i++) {
+            if (i % 2 == 0) {
+                body.append(parts.get(i));
+            }
+            else if (values.get(parts.get(i)) != null) {
+                body.append(values.get(parts.get(i)));
+            }
+        }
+        return body.toString();
+    }
+}
@@ -0,0 +1,79 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.FeaturedSpeaker;
+import com.google.devrel.training.conference.domain.Session;
+import com.googlecode.objectify.Key;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+
+/**
+ * Decides the featured speaker of a conference. Run by the Outbox dispatcher
+ * for the event recorded by createSession, off the request path.
+ */
+public class FeaturedSpeakerService {
+
+    /**
+     * Loads the text of the latest featured speaker from the datastore, for
+     * AnnouncementCache, when memcache no longer holds it.
+     */
+    public static final Callable<String> LOADER = new Callable<String>() {
+        @Override
+        public String call() {
+            FeaturedSpeaker latest = ofy().load().type(FeaturedSpeaker.class).order("-updated").first().now();
+            return latest == null ? "" : latest.getMessage();
+        }
+    };
+
+    /**
+     * Stores the speaker as the conference's FeaturedSpeaker, and as the latest
+     * featured speaker in memcache, if speaker will talk at more than one
+     * session in the conference
+     * 
+     * @param conferenceKey 
+     *              the Conference key
+     * @param speaker
+     *            the speaker to check to be added to memcache
+     * @return true if the speaker is featured.
+     */
+    public static boolean check(Key<Conference> conferenceKey, String speaker) {
+        // Check if speaker has more than one session, from the counter. If
+        // yes, add announcement
+        if (SpeakerCountService.get(conferenceKey, speaker) <= 1) {
+            return false;
+        }
+        Conference conference = ofy().load().key(conferenceKey).now();
+        if (conference == null) {
+            return false;
+        }
+
+        List<Session> conferenceSessionsWithSpeaker = SessionListCache.getBySpeaker(conferenceKey, speaker);
+
+        List<String> sessionNames = new ArrayList<>(conferenceSessionsWithSpeaker.size());
+        for (Session s : conferenceSessionsWithSpeaker) {
+            sessionNames.add(s.getName());
+        }
+
+        // Persist the conference's featured speaker, so it survives
+        // memcache evictions
+        FeaturedSpeaker featuredSpeaker = new FeaturedSpeaker(conferenceKey, conference.getName(), speaker, sessionNames);
+        ofy().save().entity(featuredSpeaker).now();
+
+        // Get the MemCache Service
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+
+        // Put the speaker announcement String in memcache
+        String announcementText = featuredSpeaker.getMessage();
+
+        memcacheService.put(Constants.MEMCACHE_FEATURED_SPEAKER_KEY, announcementText);
+        AnnouncementCache.invalidate(Constants.MEMCACHE_FEATURED_SPEAKER_KEY);
+        return true;
+    }
+}
@@ -0,0 +1,116 @@
+package com.google.devrel.training.conference.service;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+
+/**
+ * Keeps the e-mails in memory instead of sending them, to run and measure the
+ * e-mail delivery off App Engine. At most KEPT_MESSAGES messages are kept,
+ * all of them are counted. Failures can be set up per recipient.
+ */
+public class InMemoryMailTransport implements MailTransport {
+
+    /**
+     * Maximum number of messages kept, so long runs don't fill the memory.
+     */
+    private static final int                      KEPT_MESSAGES = 1000;
+
+    private final Map<String, MessagingException> failures      = new ConcurrentHashMap<>();
+
+    private final List<Message>                   messages      = new ArrayList<>();
+
+    private final AtomicLong                      sent          = new AtomicLong();
+
+    private final InternetAddress                 sender;
+
+    private final Session                         session       = Session.getInstance(new Properties(), null);
+
+    public InMemoryMailTransport() {
+        try {
+            sender = new InternetAddress("noreply@localhost", "Conference Central");
+        }
+        catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public Session getSession() {
+        return session;
+    }
+
+    @Override
+    public InternetAddress getSender() {
+        return sender;
+    }
+
+    @Override
+    public Connection connect() {
+        return new Connection() {
+
+            @Override
+            public void send(Message message) throws MessagingException {
+                if (message.getAllRecipients() == null || message.getAllRecipients().length == 0) {
+                    throw new MessagingException("No recipient");
+                }
+                MessagingException failure = failures.get(((InternetAddress) message.getAllRecipients()[0]).getAddress());
+                if (failure != null) {
+                    throw failure;
+                }
+                sent.incrementAndGet();
+                synchronized (messages) {
+                    if (messages.size() < KEPT_MESSAGES) {
+                        messages.add(message);
+                    }
+                }
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    /**
+     * Makes the messages to a recipient fail, or succeed again.
+     *
+     * @param email
+     *            the recipient
+     * @param failure
+     *            the failure to throw, null to stop failing
+     */
+    public void fail(String email, MessagingException failure) {
+        if (failure == null) {
+            failures.remove(email);
+        }
+        else {
+            failures.put(email, failure);
+        }
+    }
+
+    /**
+     * @return a copy of the messages kept.
+     */
+    public List<Message> getMessages() {
+        synchronized (messages) {
+            return new ArrayList<>(messages);
+        }
+    }
+
+    /**
+     * @return the number of messages sent.
+     */
+    public long getSent() {
+        return sent.get();
+    }
+}
@@ -0,0 +1,106 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A circuit breaker per e-mail recipient, shared by all instances through
+ * memcache. After FAILURE_THRESHOLD consecutive transient failures to a
+ * recipient, the breaker opens for OPEN_SECONDS: the notifications to that
+ * recipient are put aside without being tried, so they don't take the time
+ * and the batch slots of the healthy deliveries. A success closes it.
+ *
+ * Losing the memcache entries only closes the breakers early.
+ */
+public class MailCircuitBreaker {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    private static final String FAILURES_PREFIX   = "EMAIL_FAILURES:";
+
+    private static final String OPEN_PREFIX       = "EMAIL_BREAKER_OPEN:";
+
+    /**
+     * Number of consecutive failures opening the breaker.
+     */
+    private static final int    FAILURE_THRESHOLD = 3;
+
+    /**
+     * How long the breaker stays open.
+     */
+    public static final int     OPEN_SECONDS      = 15 * 60;
+
+    /**
+     * How long consecutive failures are counted since the first one.
+     */
+    private static final int    FAILURE_SECONDS   = 60 * 60;
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the recipients whose breaker is open, with one memcache call.
+     *
+     * @param emails
+     *            the recipients
+     * @return the recipients not to try now.
+     */
+    public static Set<String> open(Collection<String> emails) {
+        List<String> keys = new ArrayList<>(emails.size());
+        for (String email : emails) {
+            keys.add(OPEN_PREFIX + email);
+        }
+        Set<String> open = new HashSet<>();
+        for (String key : MemcacheServiceFactory.getMemcacheService().getAll(keys).keySet()) {
+            open.add(key.substring(OPEN_PREFIX.length()));
+        }
+        return open;
+    }
+
+    /**
+     * Counts a transient failure to a recipient, opening its breaker at
+     * FAILURE_THRESHOLD consecutive failures.
+     *
+     * @param email
+     *            the recipient
+     * @return true if the breaker opened.
+     */
+    public static boolean recordFailure(String email) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        memcacheService.put(FAILURES_PREFIX + email, 0L, Expiration.byDeltaSeconds(FAILURE_SECONDS), SetPolicy.ADD_ONLY_IF_NOT_PRESENT);
+        Long failures = memcacheService.increment(FAILURES_PREFIX + email, 1L);
+        if (failures == null || failures < FAILURE_THRESHOLD) {
+            return false;
+        }
+        memcacheService.put(OPEN_PREFIX + email, Boolean.TRUE, Expiration.byDeltaSeconds(OPEN_SECONDS));
+        memcacheService.delete(FAILURES_PREFIX + email);
+        return true;
+    }
+
+    /**
+     * Resets the consecutive failures of recipients after a success.
+     *
+     * @param emails
+     *            the recipients sent to
+     */
+    public static void recordSuccess(Collection<String> emails) {
+        List<String> keys = new ArrayList<>(emails.size());
+        for (String email : emails) {
+            keys.add(FAILURES_PREFIX + email);
+        }
+        MemcacheServiceFactory.getMemcacheService().deleteAll(keys);
+    }
+}
@@ -0,0 +1,55 @@
+package com.google.devrel.training.conference.service;
+
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.Session;
+import javax.mail.internet.InternetAddress;
+
+/**
+ * Where the notification e-mails go. EmailService builds the messages in the
+ * transport's session, from its sender, and sends each batch over one
+ * connection. AppEngineMailTransport is the production transport,
+ * InMemoryMailTransport the stand-in used off App Engine.
+ */
+public interface MailTransport {
+
+    /**
+     * An open connection, sending any number of messages until closed.
+     */
+    interface Connection {
+
+        /**
+         * Sends a message.
+         *
+         * @param message
+         *            the message
+         * @throws MessagingException
+         *             if the message cannot be sent.
+         */
+        void send(Message message) throws MessagingException;
+
+        /**
+         * Closes the connection.
+         */
+        void close();
+    }
+
+    /**
+     * @return the session the messages are built in.
+     */
+    Session getSession();
+
+    /**
+     * @return the sender of the messages.
+     */
+    InternetAddress getSender();
+
+    /**
+     * Opens a connection.
+     *
+     * @return the connection.
+     * @throws MessagingException
+     *             if the connection cannot be opened.
+     */
+    Connection connect() throws MessagingException;
+}
@@ -0,0 +1,30 @@
+package com.google.devrel.training.conference.service;
+
+/**
+ * A function applied by MapperService to every entity of a kind, e.g. to
+ * backfill a field or re-save entities under new indexes.
+ *
+ * A slice of a shard may run again after a failure, so map() must be
+ * idempotent: mapping an entity twice must leave it as mapping it once.
+ *
+ * @param <T>
+ *            the entity class
+ */
+public interface Mapper<T> {
+
+    /**
+     * Returns the class of the entities to map.
+     *
+     * @return the entity class.
+     */
+    Class<T> getKind();
+
+    /**
+     * Maps an entity, changing it in place.
+     *
+     * @param entity
+     *            the entity
+     * @return true if the entity changed and must be saved.
+     */
+    boolean map(T entity);
+}
@@ -0,0 +1,354 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.MapperJob;
+import com.google.devrel.training.conference.domain.MapperShard;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * Runs a Mapper over every entity of its kind, for schema migrations and
+ * backfills too large for one request.
+ *
+ * A job splits the kind into key ranges from the __scatter__ property, which
+ * the datastore sets on a random sample of the entities. Each range is a
+ * MapperShard, processed by a chain of tasks: a slice maps the entities from
+ * the checkpointed cursor for a bounded time, saves the changed ones in
+ * batches, then checkpoints the new cursor and enqueues the next slice in the
+ * same transaction. A lost chain is restarted by resume(), and a slice run
+ * twice is only checkpointed once.
+ */
+public class MapperService {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    private static final String URL             = "/tasks/mapper";
+
+    /**
+     * Maximum number of shards of a job.
+     */
+    public static final int     MAX_SHARDS      = 64;
+
+    /**
+     * Number of scatter keys read per shard, the more keys the more even the
+     * ranges.
+     */
+    private static final int    OVERSAMPLING    = 32;
+
+    /**
+     * How long a slice maps entities, well within the request deadline.
+     */
+    private static final long   SLICE_MILLIS    = 20 * 1000;
+
+    /**
+     * Maximum number of entities mapped by a slice, bounding the work lost
+     * when a slice fails. A job may use smaller slices.
+     */
+    public static final int     MAX_SLICE_SIZE  = 1000;
+
+    private static final int    CHUNK_SIZE      = 100;
+
+    /**
+     * Number of changed entities saved per batch put.
+     */
+    private static final int    SAVE_BATCH_SIZE = 100;
+
+    /* **********************************************************************
+     * INNER CLASSES
+     * **********************************************************************
+     */
+
+    /**
+     * What a slice did, before it is checkpointed.
+     */
+    private static class Slice {
+
+        private String  cursor;
+
+        private boolean last;
+
+        private int     mapped;
+
+        private int     saved;
+    }
+
+    /* **********************************************************************
+     * PRIVATE METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Splits a kind into at most the given number of key ranges, from a
+     * sample of its keys ordered by __scatter__. A kind without scatter
+     * keys, e.g. a small one, gets a single range.
+     *
+     * @param kind
+     *            the datastore kind
+     * @param shards
+     *            the wanted number of ranges
+     * @return the keys splitting the ranges, in key order.
+     */
+    private static List<com.google.appengine.api.datastore.Key> split(String kind, int shards) {
+        Query query = new Query(kind).setKeysOnly().addSort(Entity.SCATTER_RESERVED_PROPERTY);
+        List<com.google.appengine.api.datastore.Key> sample = new ArrayList<>();
+        for (Entity entity : DatastoreServiceFactory.getDatastoreService().prepare(query)
+                        .asIterable(FetchOptions.Builder.withLimit(shards * OVERSAMPLING))) {
+            sample.add(entity.getKey());
+        }
+        Collections.sort(sample);
+
+        List<com.google.appengine.api.datastore.Key> splits = new ArrayList<>();
+        int ranges = Math.min(shards, sample.size() + 1);
+        for (int i = 1; i < ranges; i++) {
+            com.google.appengine.api.datastore.Key split = sample.get(i * sample.size() / ranges);
+            if (splits.isEmpty() || !splits.get(splits.size() - 1).equals(split)) {
+                splits.add(split);
+            }
+        }
+        return splits;
+    }
+
+    private static TaskOptions slice(String jobId, int shard, int slice) {
+        return TaskOptions.Builder.withUrl(URL)
+                        .param("job", jobId)
+                        .param("shard", Integer.toString(shard))
+                        .param("slice", Integer.toString(slice));
+    }
+
+    private static List<MapperShard> loadShards(MapperJob job) {
+        List<Key<MapperShard>> keys = new ArrayList<>(job.getShards());
+        for (int shard = 0; shard < job.getShards(); shard++) {
+            keys.add(MapperShard.key(job.getId(), shard));
+        }
+        Map<Key<MapperShard>, MapperShard> shards = ofy().load().keys(keys);
+        List<MapperShard> found = new ArrayList<>(keys.size());
+        for (Key<MapperShard> key : keys) {
+            found.add(shards.get(key));
+        }
+        return found;
+    }
+
+    /**
+     * Maps the entities of a shard from its cursor, for at most SLICE_MILLIS
+     * or sliceSize entities, saving the changed ones in batches.
+     */
+    private static <T> Slice map(Mapper<T> mapper, MapperShard shard, int sliceSize) {
+        long deadline = System.currentTimeMillis() + SLICE_MILLIS;
+        com.googlecode.objectify.cmd.Query<T> query = ofy().load().type(mapper.getKind()).chunk(CHUNK_SIZE);
+        if (shard.getStart() != null) {
+            query = query.filterKey(">=", Key.create(shard.getStart()));
+        }
+        if (shard.getEnd() != null) {
+            query = query.filterKey("<", Key.create(shard.getEnd()));
+        }
+        if (shard.getCursor() != null) {
+            query = query.startAt(Cursor.fromWebSafeString(shard.getCursor()));
+        }
+
+        Slice slice = new Slice();
+        List<T> changed = new ArrayList<>(SAVE_BATCH_SIZE);
+        QueryResultIterator<T> iterator = query.iterator();
+        while (slice.mapped < sliceSize && System.currentTimeMillis() < deadline && iterator.hasNext()) {
+            T entity = iterator.next();
+            slice.mapped++;
+            if (mapper.map(entity)) {
+                changed.add(entity);
+            }
+            if (changed.size() == SAVE_BATCH_SIZE) {
+                ofy().save().entities(changed).now();
+                slice.saved += changed.size();
+                changed.clear();
+            }
+        }
+        if (!changed.isEmpty()) {
+            ofy().save().entities(changed).now();
+            slice.saved += changed.size();
+        }
+        slice.last = !iterator.hasNext();
+        slice.cursor = iterator.getCursor().toWebSafeString();
+        return slice;
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Starts a job running a mapper, and enqueues the first slice of each of
+     * its shards.
+     *
+     * @param name
+     *            the name of the mapper, in Migrations
+     * @param shards
+     *            the wanted number of shards, fewer are used if the kind is
+     *            too small to be split that much
+     * @return the id of the job.
+     * @throws IllegalArgumentException
+     *             if there is no mapper of that name.
+     */
+    public static String start(String name, int shards) {
+        return start(name, shards, MAX_SLICE_SIZE);
+    }
+
+    /**
+     * Starts a job running a mapper with slices of at most the given size,
+     * e.g. smaller ones for a mapper writing more than the mapped entities.
+     *
+     * @param name
+     *            the name of the mapper, in Migrations
+     * @param shards
+     *            the wanted number of shards, fewer are used if the kind is
+     *            too small to be split that much
+     * @param sliceSize
+     *            the maximum number of entities mapped by a slice, capped at
+     *            MAX_SLICE_SIZE
+     * @return the id of the job.
+     * @throws IllegalArgumentException
+     *             if there is no mapper of that name.
+     */
+    public static String start(String name, int shards, int sliceSize) {
+        Mapper<?> mapper = Migrations.get(name);
+        if (mapper == null) {
+            throw new IllegalArgumentException("No mapper named " + name);
+        }
+        String jobId = UUID.randomUUID().toString();
+        List<com.google.appengine.api.datastore.Key> splits = split(Key.getKind(mapper.getKind()),
+                        Math.max(1, Math.min(shards, MAX_SHARDS)));
+
+        List<Object> entities = new ArrayList<>(splits.size() + 2);
+        List<TaskOptions> tasks = new ArrayList<>(splits.size() + 1);
+        entities.add(new MapperJob(jobId, name, splits.size() + 1, Math.max(1, Math.min(sliceSize, MAX_SLICE_SIZE))));
+        for (int shard = 0; shard <= splits.size(); shard++) {
+            String start = shard == 0 ? null : KeyFactory.keyToString(splits.get(shard - 1));
+            String end = shard == splits.size() ? null : KeyFactory.keyToString(splits.get(shard));
+            entities.add(new MapperShard(jobId, shard, start, end));
+            tasks.add(slice(jobId, shard, 0));
+        }
+        // The job is saved before its tasks are enqueued, should enqueuing
+        // fail the shards are started by resume()
+        ofy().save().entities(entities).now();
+        QueueFactory.getDefaultQueue().add(tasks);
+        return jobId;
+    }
+
+    /**
+     * Runs one slice of a shard, then checkpoints it and enqueues the next
+     * slice in the same transaction. A slice of a finished shard, or a slice
+     * already done, does nothing.
+     *
+     * @param jobId
+     *            the id of the job
+     * @param shardNumber
+     *            the number of the shard
+     * @param sliceNumber
+     *            the number of the slice
+     * @return true if the shard is finished.
+     */
+    public static boolean runSlice(final String jobId, final int shardNumber, final int sliceNumber) {
+        MapperJob job = ofy().load().key(MapperJob.key(jobId)).now();
+        MapperShard shard = ofy().load().key(MapperShard.key(jobId, shardNumber)).now();
+        if (job == null || shard == null || !shard.isNextSlice(sliceNumber)) {
+            return false;
+        }
+
+        final Slice slice = map(Migrations.get(job.getMapper()), shard,
+                        job.getSliceSize() == 0 ? MAX_SLICE_SIZE : job.getSliceSize());
+
+        return ofy().transact(new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                MapperShard checkpoint = ofy().load().key(MapperShard.key(jobId, shardNumber)).now();
+                if (!checkpoint.isNextSlice(sliceNumber)) {
+                    return false;
+                }
+                checkpoint.checkpoint(slice.cursor, slice.mapped, slice.saved, slice.last);
+                ofy().save().entity(checkpoint).now();
+                if (!slice.last) {
+                    QueueFactory.getDefaultQueue().add(ofy().getTransaction(), slice(jobId, shardNumber, sliceNumber + 1));
+                }
+                return slice.last;
+            }
+        });
+    }
+
+    /**
+     * Enqueues again the next slice of each unfinished shard of a job, e.g.
+     * after its task failed for good. A slice still running is harmless, only
+     * one of the two is checkpointed.
+     *
+     * @param jobId
+     *            the id of the job
+     * @return the number of shards resumed.
+     */
+    public static int resume(String jobId) {
+        MapperJob job = ofy().load().key(MapperJob.key(jobId)).now();
+        if (job == null) {
+            return 0;
+        }
+        List<TaskOptions> tasks = new ArrayList<>();
+        List<MapperShard> shards = loadShards(job);
+        for (int shard = 0; shard < shards.size(); shard++) {
+            if (shards.get(shard) != null && !shards.get(shard).isDone()) {
+                tasks.add(slice(jobId, shard, shards.get(shard).getSlice()));
+            }
+        }
+        if (!tasks.isEmpty()) {
+            QueueFactory.getDefaultQueue().add(tasks);
+        }
+        return tasks.size();
+    }
+
+    /**
+     * Reports the progress of a job, one structured line for the job then one
+     * per shard.
+     *
+     * @param jobId
+     *            the id of the job
+     * @return the lines of the report, empty if there is no such job.
+     */
+    public static List<String> progress(String jobId) {
+        List<String> lines = new ArrayList<>();
+        MapperJob job = ofy().load().key(MapperJob.key(jobId)).now();
+        if (job == null) {
+            return lines;
+        }
+        List<MapperShard> shards = loadShards(job);
+        int done = 0;
+        long mapped = 0;
+        long saved = 0;
+        for (int shard = 0; shard < shards.size(); shard++) {
+            MapperShard s = shards.get(shard);
+            if (s == null) {
+                continue;
+            }
+            done += s.isDone() ? 1 : 0;
+            mapped += s.getMapped();
+            saved += s.getSaved();
+            lines.add(String.format("mapperShard shard=%d slices=%d mapped=%d saved=%d done=%b",
+                            shard, s.getSlice(), s.getMapped(), s.getSaved(), s.isDone()));
+        }
+        lines.add(0, String.format("mapperJob job=%s mapper=%s created=%tFT%<tT shards=%d done=%d mapped=%d saved=%d",
+                        jobId, job.getMapper(), job.getCreated(), job.getShards(), done, mapped, saved));
+        return lines;
+    }
+}
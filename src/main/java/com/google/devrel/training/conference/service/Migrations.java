@@ -0,0 +1,72 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Session;
+
+import java.util.Map;
+
+/**
+ * The mappers that can be run by name with MapperService, one per schema
+ * migration or backfill. Their saves are batched outside of transactions, so
+ * a migration of entities also written by the endpoints, like the legacy
+ * wishlists moved by MigrateWishlistsServlet, is not a mapper.
+ */
+public class Migrations {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    /**
+     * Derives Conference.month again from the start date.
+     */
+    private static final Mapper<Conference>     RECOMPUTE_CONFERENCE_MONTH = new Mapper<Conference>() {
+        @Override
+        public Class<Conference> getKind() {
+            return Conference.class;
+        }
+
+        @Override
+        public boolean map(Conference conference) {
+            return conference.updateMonth();
+        }
+    };
+
+    /**
+     * Saves every session again, so the fields indexed since it was saved
+     * get their index entries.
+     */
+    private static final Mapper<Session>        RESAVE_SESSIONS            = new Mapper<Session>() {
+        @Override
+        public Class<Session> getKind() {
+            return Session.class;
+        }
+
+        @Override
+        public boolean map(Session session) {
+            return true;
+        }
+    };
+
+    private static final Map<String, Mapper<?>> MAPPERS                    = ImmutableMap.<String, Mapper<?>> of(
+                                                                                  "recomputeConferenceMonth", RECOMPUTE_CONFERENCE_MONTH,
+                                                                                  "resaveSessions", RESAVE_SESSIONS);
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns a mapper by name.
+     *
+     * @param name
+     *            the name of the mapper
+     * @return the mapper, or null if there is no mapper of that name.
+     */
+    public static Mapper<?> get(String name) {
+        return MAPPERS.get(name);
+    }
+}
@@ -0,0 +1,114 @@
+package com.google.devrel.training.conference.service;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.devrel.training.conference.service.CacheStats.Event;
+import com.googlecode.objectify.Key;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-instance negative cache of websafe keys, remembering for TTL_SECONDS the
+ * keys that cannot be parsed or whose entity does not exist. Requests for such
+ * a key (stale links, crawlers) are then answered without any memcache or
+ * datastore RPC.
+ *
+ * Entities are created with freshly allocated ids, so a key only goes from
+ * missing to existing in rare cases; creators still call invalidate() so this
+ * instance sees the new entity at once, other instances within TTL_SECONDS.
+ */
+public class MissingKeyCache {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    /**
+     * Maximum number of keys held per instance.
+     */
+    private static final int                    MAXIMUM_SIZE = 10000;
+
+    /**
+     * How long a key is remembered as missing.
+     */
+    private static final long                   TTL_SECONDS  = 60;
+
+    private static final String                 FAMILY       = "missingKey.local";
+
+    private static final Cache<String, Boolean> LOCAL        = CacheBuilder.newBuilder()
+                                                                    .maximumSize(MAXIMUM_SIZE)
+                                                                    .expireAfterWrite(TTL_SECONDS, TimeUnit.SECONDS)
+                                                                    .removalListener(new RemovalListener<String, Boolean>() {
+                                                                        @Override
+                                                                        public void onRemoval(RemovalNotification<String, Boolean> notification) {
+                                                                            if (notification.getCause() == RemovalCause.SIZE) {
+                                                                                CacheStats.record(FAMILY, Event.EVICTION);
+                                                                            }
+                                                                        }
+                                                                    })
+                                                                    .build();
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Parses a websafe key, unless it is known to be missing.
+     *
+     * @param websafeKey
+     *            the websafe key
+     * @return the key, or null if it cannot be parsed or is known to be
+     *         missing.
+     */
+    public static <T> Key<T> parse(String websafeKey) {
+        if (websafeKey == null) {
+            return null;
+        }
+        if (LOCAL.getIfPresent(websafeKey) != null) {
+            // Not counted per key: the missing keys are mostly junk, which
+            // would crowd the hot keys out of the report
+            CacheStats.record(FAMILY, Event.HIT);
+            return null;
+        }
+        try {
+            return Key.create(websafeKey);
+        }
+        catch (IllegalArgumentException e) {
+            markMissing(websafeKey);
+            return null;
+        }
+    }
+
+    /**
+     * Remembers that the entity of a key does not exist.
+     *
+     * @param websafeKey
+     *            the websafe key
+     */
+    public static void markMissing(String websafeKey) {
+        LOCAL.put(websafeKey, Boolean.TRUE);
+        CacheStats.record(FAMILY, Event.SET);
+    }
+
+    /**
+     * Forgets a key, after its entity has been created.
+     *
+     * @param websafeKey
+     *            the websafe key
+     */
+    public static void invalidate(String websafeKey) {
+        LOCAL.invalidate(websafeKey);
+    }
+
+    /**
+     * Drops every key held by this instance.
+     */
+    public static void clearLocal() {
+        LOCAL.invalidateAll();
+    }
+}
@@ -0,0 +1,233 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.datastore.FetchOptions;
+import com.google.appengine.api.datastore.KeyFactory;
+import com.google.appengine.api.datastore.PropertyProjection;
+import com.google.appengine.api.datastore.Query;
+import com.google.appengine.api.datastore.Query.CompositeFilterOperator;
+import com.google.appengine.api.datastore.Query.FilterOperator;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.common.base.Joiner;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.NearlySoldOut;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Maintains the NearlySoldOut set and the announcement built from it. The
+ * registration endpoints record an update in the Outbox, in their
+ * transaction, when a conference crosses the nearly sold out threshold; the
+ * announcement is then published again only if the set changed. The cron of SetAnnouncementServlet
+ * rebuilds the set with a scan, as a consistency check. The scan runs as a
+ * chain of tasks, each reading the conferences for a bounded time from the
+ * cursor checkpointed in NearlySoldOut.
+ */
+public class NearlySoldOutService {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    private static final String PREFIX         = "Oh look! Last chance to attend! The following conferences are nearly sold out: ";
+
+    private static final String SCAN_URL       = "/crons/set_announcement";
+
+    /**
+     * How long a slice of a scan reads conferences, well within the request
+     * deadline.
+     */
+    private static final long   SLICE_MILLIS   = 20 * 1000;
+
+    /**
+     * Maximum number of conferences found by a slice, bounding the size of
+     * the checkpoint.
+     */
+    private static final int    MAX_SLICE_SIZE = 500;
+
+    private static final int    CHUNK_SIZE     = 100;
+
+    /* **********************************************************************
+     * PRIVATE METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Publishes the announcement of the conferences in the set, or retracts
+     * it if the set is empty.
+     *
+     * @param names
+     *            the names of the nearly sold out conferences
+     */
+    private static void announce(List<String> names) {
+        if (names.isEmpty()) {
+            AnnouncementStore.retract(Constants.ANNOUNCEMENT_NEARLY_SOLD_OUT);
+        }
+        else {
+            AnnouncementStore.publish(Constants.ANNOUNCEMENT_NEARLY_SOLD_OUT, PREFIX + Joiner.on(", ").skipNulls().join(names), 0);
+        }
+    }
+
+    /**
+     * Enqueues a slice of a scan. Must be called in the transaction
+     * checkpointing the scan.
+     *
+     * @param scanId
+     *            the id of the scan
+     * @param slice
+     *            the number of the slice
+     */
+    private static void enqueueSlice(String scanId, int slice) {
+        QueueFactory.getDefaultQueue().add(ofy().getTransaction(),
+                        TaskOptions.Builder.withUrl(SCAN_URL)
+                                        .param("scanId", scanId)
+                                        .param("slice", Integer.toString(slice)));
+    }
+
+    /**
+     * Loads the set, or an empty one if it was never saved.
+     *
+     * @return the set.
+     */
+    private static NearlySoldOut load() {
+        NearlySoldOut nearlySoldOut = ofy().load().key(NearlySoldOut.key()).now();
+        return nearlySoldOut == null ? new NearlySoldOut() : nearlySoldOut;
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Adds or removes a conference from the set according to its current
+     * seats, and publishes the announcement again if the set changed.
+     *
+     * @param conferenceKey
+     *            the key of the conference
+     * @return true if the set changed.
+     */
+    public static boolean update(final Key<Conference> conferenceKey) {
+        NearlySoldOut changed = ofy().transact(new Work<NearlySoldOut>() {
+            @Override
+            public NearlySoldOut run() {
+                NearlySoldOut nearlySoldOut = load();
+                Conference conference = ofy().load().key(conferenceKey).now();
+                if (!nearlySoldOut.update(conferenceKey.getString(), conference)) {
+                    return null;
+                }
+                ofy().save().entity(nearlySoldOut).now();
+                return nearlySoldOut;
+            }
+        });
+        if (changed == null) {
+            return false;
+        }
+        announce(changed.getNames());
+        return true;
+    }
+
+    /**
+     * Starts rebuilding the set with the nearly sold out conferences found by
+     * a query, fixing any update that was lost. The scan runs in slices, the
+     * first one is enqueued in the same transaction.
+     *
+     * @return the id of the scan.
+     */
+    public static String startScan() {
+        final String scanId = UUID.randomUUID().toString();
+        ofy().transact(new VoidWork() {
+            @Override
+            public void vrun() {
+                NearlySoldOut nearlySoldOut = load();
+                nearlySoldOut.startScan(scanId);
+                ofy().save().entity(nearlySoldOut).now();
+                enqueueSlice(scanId, 0);
+            }
+        });
+        return scanId;
+    }
+
+    /**
+     * Runs one slice of a scan: reads the nearly sold out conferences from the
+     * checkpointed cursor for at most SLICE_MILLIS, then checkpoints them with
+     * the new cursor and enqueues the next slice. The last slice replaces the
+     * set, and publishes the announcement again.
+     *
+     * A slice of an abandoned scan, or a slice already done, does nothing.
+     *
+     * @param scanId
+     *            the id of the scan
+     * @param slice
+     *            the number of the slice
+     * @return true if the scan is finished.
+     */
+    public static boolean scanSlice(final String scanId, final int slice) {
+        long deadline = System.currentTimeMillis() + SLICE_MILLIS;
+        NearlySoldOut checkpoint = load();
+        if (!checkpoint.isNextSlice(scanId, slice)) {
+            return false;
+        }
+
+        // Only the names are needed, a projection query reads them from the
+        // index without loading the conferences
+        Query query = new Query(Conference.class.getSimpleName())
+                        .setFilter(CompositeFilterOperator.and(
+                                        FilterOperator.LESS_THAN_OR_EQUAL.of("seatsAvailable", Conference.NEARLY_SOLD_OUT_SEATS),
+                                        FilterOperator.GREATER_THAN.of("seatsAvailable", 0)))
+                        .addProjection(new PropertyProjection("name", String.class));
+        FetchOptions options = FetchOptions.Builder.withChunkSize(CHUNK_SIZE);
+        if (checkpoint.getScanCursor() != null) {
+            options.startCursor(Cursor.fromWebSafeString(checkpoint.getScanCursor()));
+        }
+        QueryResultIterator<Entity> iterator = DatastoreServiceFactory.getDatastoreService()
+                                                .prepare(query).asQueryResultIterator(options);
+
+        final List<NearlySoldOut.Item> found = new ArrayList<>();
+        while (found.size() < MAX_SLICE_SIZE && System.currentTimeMillis() < deadline && iterator.hasNext()) {
+            Entity entity = iterator.next();
+            found.add(new NearlySoldOut.Item(KeyFactory.keyToString(entity.getKey()), (String) entity.getProperty("name")));
+        }
+        final boolean last = !iterator.hasNext();
+        final String cursor = iterator.getCursor().toWebSafeString();
+
+        NearlySoldOut finished = ofy().transact(new Work<NearlySoldOut>() {
+            @Override
+            public NearlySoldOut run() {
+                NearlySoldOut nearlySoldOut = load();
+                if (!nearlySoldOut.isNextSlice(scanId, slice)) {
+                    return null;
+                }
+                nearlySoldOut.addScanned(found, cursor);
+                if (last) {
+                    nearlySoldOut.finishScan();
+                }
+                else {
+                    enqueueSlice(scanId, slice + 1);
+                }
+                ofy().save().entity(nearlySoldOut).now();
+                return last ? nearlySoldOut : null;
+            }
+        });
+        if (finished == null) {
+            return false;
+        }
+        // The announcement is published again even if the set did not change,
+        // in case a publication was lost
+        announce(finished.getNames());
+        return true;
+    }
+}
@@ -1,8 +1,19 @@
 package com.google.devrel.training.conference.service;
 
+import com.google.devrel.training.conference.domain.AppEngineUser;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.DeadLetterEmail;
+import com.google.devrel.training.conference.domain.FeaturedSpeaker;
+import com.google.devrel.training.conference.domain.MapperJob;
+import com.google.devrel.training.conference.domain.MapperShard;
+import com.google.devrel.training.conference.domain.NearlySoldOut;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.ProfileMemberships;
 import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.SpeakerCounts;
+import com.google.devrel.training.conference.domain.SpeakerIndex;
+import com.google.devrel.training.conference.domain.StoredAnnouncement;
+import com.google.devrel.training.conference.domain.WishlistEntry;
 import com.googlecode.objectify.Objectify;
 import com.googlecode.objectify.ObjectifyFactory;
 import com.googlecode.objectify.ObjectifyService;
@@ -16,8 +27,19 @@ public class OfyService {
      */
     static {
         factory().register(Profile.class);
+        factory().register(ProfileMemberships.class);
         factory().register(Conference.class);
         factory().register(Session.class);
+        factory().register(AppEngineUser.class);
+        factory().register(WishlistEntry.class);
+        factory().register(FeaturedSpeaker.class);
+        factory().register(StoredAnnouncement.class);
+        factory().register(SpeakerIndex.class);
+        factory().register(SpeakerCounts.class);
+        factory().register(NearlySoldOut.class);
+        factory().register(DeadLetterEmail.class);
+        factory().register(MapperJob.class);
+        factory().register(MapperShard.class);
     }
 
     /**
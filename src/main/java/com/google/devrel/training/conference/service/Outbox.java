@@ -0,0 +1,417 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.DatastoreTimeoutException;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.appengine.api.taskqueue.TaskOptions.Method;
+import com.google.devrel.training.conference.domain.Conference;
+import com.googlecode.objectify.Key;
+
+import java.io.UnsupportedEncodingException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.ConcurrentModificationException;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The side effects of the endpoints that must follow a commit: cache
+ * invalidations, announcements and notifications. An endpoint records its
+ * events with record(), in the transaction of the change, as one pull task of
+ * the "outbox" queue; the events are thus kept exactly when the change
+ * commits, even if the instance dies right after.
+ *
+ * DispatchOutboxServlet runs dispatchBatch(), which leases up to BATCH_SIZE
+ * recorded transactions, applies their events once each, and deletes them.
+ * Every event is idempotent, so the events of a transaction whose dispatch
+ * failed are simply applied again when it is leased again, after a retry
+ * delay for which the dispatcher is started again. Events failing on
+ * datastore contention, e.g. on the single NearlySoldOut entity, are never
+ * given up on: they are retried until they apply. Cron also runs the
+ * dispatcher every minute, for the transactions committed after the last
+ * lease of the run they kicked. The endpoints still drop their caches inline
+ * after the commit, so their callers read their own writes; the dispatched
+ * invalidation only covers a lost one.
+ */
+public class Outbox {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    private static final Logger LOG                = Logger.getLogger(Outbox.class.getName());
+
+    private static final String QUEUE              = "outbox";
+
+    private static final String DISPATCHER_URL     = "/tasks/dispatch_outbox";
+
+    /**
+     * Maximum number of recorded transactions leased at once.
+     */
+    public static final int     BATCH_SIZE         = 100;
+
+    /**
+     * How long the leased transactions are reserved, should the dispatcher
+     * die before deleting or retrying them.
+     */
+    private static final long   LEASE_SECONDS      = 60;
+
+    /**
+     * The delay before a failed transaction is dispatched again, doubled at
+     * each further attempt.
+     */
+    private static final long   RETRY_SECONDS      = 1;
+
+    /**
+     * The longest delay between two attempts.
+     */
+    private static final long   MAX_RETRY_SECONDS  = 5 * 60;
+
+    /**
+     * How long events are gathered before the dispatcher runs.
+     */
+    private static final int    KICK_DELAY_SECONDS = 1;
+
+    private static final String MEMCACHE_KICK_KEY  = "OUTBOX_DISPATCHER_KICKED";
+
+    /**
+     * Number of dispatch attempts after which the events of a transaction
+     * are given up on, unless they only failed on datastore contention.
+     */
+    private static final int    MAX_ATTEMPTS       = 5;
+
+    /* **********************************************************************
+     * ENUMS
+     * **********************************************************************
+     */
+
+    /**
+     * The kinds of side effects.
+     */
+    public enum Type {
+        INVALIDATE_CONFERENCE, INVALIDATE_SESSIONS, NOTIFY, UPDATE_NEARLY_SOLD_OUT, CHECK_FEATURED_SPEAKER
+    }
+
+    /* **********************************************************************
+     * INNER CLASSES
+     * **********************************************************************
+     */
+
+    /**
+     * A side effect to apply once its transaction commits. Events are equal
+     * when they have the same effect, so each one is applied once per batch.
+     */
+    public static class Event {
+
+        private final Type     type;
+
+        private final String[] args;
+
+        private Event(Type type, String... args) {
+            this.type = type;
+            this.args = args;
+        }
+
+        /**
+         * Drops a conference from ConferenceCache.
+         *
+         * @param websafeConferenceKey
+         *            the websafe key of the conference
+         * @return the event.
+         */
+        public static Event invalidateConference(String websafeConferenceKey) {
+            return new Event(Type.INVALIDATE_CONFERENCE, websafeConferenceKey);
+        }
+
+        /**
+         * Drops the session list of a conference from SessionListCache.
+         *
+         * @param conferenceKey
+         *            the key of the conference
+         * @return the event.
+         */
+        public static Event invalidateSessions(Key<Conference> conferenceKey) {
+            return new Event(Type.INVALIDATE_SESSIONS, conferenceKey.getString());
+        }
+
+        /**
+         * Enqueues the notification e-mail of a created entity.
+         *
+         * @param emailType
+         *            Constants.NEW_CONFERENCE or Constants.NEW_SESSION
+         * @param key
+         *            the key of the created entity
+         * @return the event.
+         */
+        public static Event notify(String emailType, Key<?> key) {
+            return new Event(Type.NOTIFY, emailType, key.getString());
+        }
+
+        /**
+         * Updates the NearlySoldOut set for a conference whose seats crossed
+         * the threshold.
+         *
+         * @param conferenceKey
+         *            the key of the conference
+         * @return the event.
+         */
+        public static Event updateNearlySoldOut(Key<Conference> conferenceKey) {
+            return new Event(Type.UPDATE_NEARLY_SOLD_OUT, conferenceKey.getString());
+        }
+
+        /**
+         * Checks whether a speaker becomes the featured speaker of a
+         * conference.
+         *
+         * @param conferenceKey
+         *            the key of the conference
+         * @param speaker
+         *            the speaker
+         * @return the event.
+         */
+        public static Event checkFeaturedSpeaker(Key<Conference> conferenceKey, String speaker) {
+            return new Event(Type.CHECK_FEATURED_SPEAKER, conferenceKey.getString(), speaker);
+        }
+
+        /**
+         * Reads an event from a task parameter, the arguments separated by
+         * spaces. Only the last argument may contain spaces.
+         */
+        private static Event parse(String type, String value) {
+            Type t = Type.valueOf(type);
+            int arity = t == Type.NOTIFY || t == Type.CHECK_FEATURED_SPEAKER ? 2 : 1;
+            return new Event(t, value.split(" ", arity));
+        }
+
+        private String value() {
+            StringBuilder value = new StringBuilder(args[0]);
+            for (int i = 1; i < args.length; i++) {
+                value.append(' ').append(args[i]);
+            }
+            return value.toString();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Event)) {
+                return false;
+            }
+            Event other = (Event) o;
+            return type == other.type && Arrays.equals(args, other.args);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * type.hashCode() + Arrays.hashCode(args);
+        }
+
+        @Override
+        public String toString() {
+            return type + " " + value();
+        }
+    }
+
+    /* **********************************************************************
+     * PRIVATE METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Applies an event, except the notifications which are enqueued together.
+     */
+    private static void apply(Event event) {
+        switch (event.type) {
+            case INVALIDATE_CONFERENCE:
+                ConferenceCache.invalidate(event.args[0]);
+                break;
+            case INVALIDATE_SESSIONS:
+                SessionListCache.invalidate(Key.<Conference> create(event.args[0]));
+                break;
+            case UPDATE_NEARLY_SOLD_OUT:
+                NearlySoldOutService.update(Key.<Conference> create(event.args[0]));
+                break;
+            case CHECK_FEATURED_SPEAKER:
+                FeaturedSpeakerService.check(Key.<Conference> create(event.args[0]), event.args[1]);
+                break;
+            default:
+                throw new IllegalArgumentException("Not applied on its own: " + event);
+        }
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Records side effects, to be applied once the current transaction
+     * commits. Must be called in that transaction; records nothing if there
+     * are no events.
+     *
+     * @param events
+     *            the events of the transaction
+     */
+    public static void record(List<Event> events) {
+        if (events.isEmpty()) {
+            return;
+        }
+        TaskOptions task = TaskOptions.Builder.withMethod(Method.PULL)
+                        .param("id", UUID.randomUUID().toString())
+                        .param("recorded", Long.toString(System.currentTimeMillis()));
+        for (Event event : events) {
+            task.param(event.type.name(), event.value());
+        }
+        QueueFactory.getQueue(QUEUE).add(ofy().getTransaction(), task);
+        kick();
+    }
+
+    /**
+     * Records side effects, to be applied once the current transaction
+     * commits. Must be called in that transaction.
+     *
+     * @param events
+     *            the events of the transaction
+     */
+    public static void record(Event... events) {
+        record(Arrays.asList(events));
+    }
+
+    /**
+     * Starts the dispatcher in KICK_DELAY_SECONDS, unless it was already
+     * started for the current window. The dispatcher is started outside of
+     * any transaction: if the events do not commit, it only finds an empty
+     * queue.
+     */
+    public static void kick() {
+        if (MemcacheServiceFactory.getMemcacheService().put(MEMCACHE_KICK_KEY, Boolean.TRUE,
+                        Expiration.byDeltaSeconds(KICK_DELAY_SECONDS), SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+            QueueFactory.getDefaultQueue().add(null,
+                            TaskOptions.Builder.withUrl(DISPATCHER_URL).countdownMillis(KICK_DELAY_SECONDS * 1000));
+        }
+    }
+
+    /**
+     * Leases a batch of recorded transactions and applies their events. An
+     * event recorded by several transactions of the batch is applied once,
+     * and the notifications are enqueued with one batch add, named after
+     * the id of their transaction so a dispatch done again enqueues them only
+     * once.
+     *
+     * A transaction with an event that failed is left in the queue, unless it
+     * was its MAX_ATTEMPTS attempt and an event failed otherwise than on
+     * contention: its lease is shortened to its retry delay, and the
+     * dispatcher is started again once the earliest one is over.
+     *
+     * @return the number of transactions leased.
+     */
+    public static int dispatchBatch() {
+        Queue queue = QueueFactory.getQueue(QUEUE);
+        List<TaskHandle> tasks = queue.leaseTasks(LEASE_SECONDS, TimeUnit.SECONDS, BATCH_SIZE);
+        if (tasks.isEmpty()) {
+            return 0;
+        }
+
+        // The events and the notifications, with the names of the tasks
+        // recording them
+        Map<Event, List<String>> events = new LinkedHashMap<>();
+        List<TaskOptions> notifications = new ArrayList<>();
+        List<String> notifying = new ArrayList<>();
+        Set<String> failed = new HashSet<>();
+        Set<String> broken = new HashSet<>();
+        for (TaskHandle task : tasks) {
+            try {
+                String id = null;
+                long recorded = 0;
+                int n = 0;
+                for (Map.Entry<String, String> param : task.extractParams()) {
+                    if (param.getKey().equals("id")) {
+                        id = param.getValue();
+                        continue;
+                    }
+                    if (param.getKey().equals("recorded")) {
+                        recorded = Long.parseLong(param.getValue());
+                        continue;
+                    }
+                    Event event = Event.parse(param.getKey(), param.getValue());
+                    if (event.type == Type.NOTIFY) {
+                        // The notification is due since it was recorded
+                        notifications.add(EmailService.notification(event.args[0], event.args[1], recorded)
+                                        .taskName("outbox-" + id + "-" + n++)
+                                        .etaMillis(recorded));
+                        notifying.add(task.getName());
+                        continue;
+                    }
+                    if (!events.containsKey(event)) {
+                        events.put(event, new ArrayList<String>(1));
+                    }
+                    events.get(event).add(task.getName());
+                }
+            }
+            catch (UnsupportedEncodingException | IllegalArgumentException e) {
+                LOG.log(Level.SEVERE, "Dropping unreadable outbox task " + task.getName(), e);
+            }
+        }
+
+        try {
+            EmailService.enqueue(notifications);
+        }
+        catch (RuntimeException e) {
+            LOG.log(Level.WARNING, "Failed to enqueue the notifications", e);
+            failed.addAll(notifying);
+            broken.addAll(notifying);
+        }
+        for (Map.Entry<Event, List<String>> event : events.entrySet()) {
+            try {
+                apply(event.getKey());
+            }
+            catch (RuntimeException e) {
+                LOG.log(Level.WARNING, "Failed to apply " + event.getKey(), e);
+                failed.addAll(event.getValue());
+                if (!(e instanceof ConcurrentModificationException || e instanceof DatastoreTimeoutException)) {
+                    broken.addAll(event.getValue());
+                }
+            }
+        }
+
+        List<TaskHandle> done = new ArrayList<>(tasks.size());
+        long retrySeconds = Long.MAX_VALUE;
+        for (TaskHandle task : tasks) {
+            int attempts = task.getRetryCount() == null ? 1 : task.getRetryCount() + 1;
+            if (!failed.contains(task.getName())) {
+                done.add(task);
+            }
+            else if (attempts >= MAX_ATTEMPTS && broken.contains(task.getName())) {
+                LOG.severe(String.format("Giving up outbox task %s after %d attempts", task.getName(), attempts));
+                done.add(task);
+            }
+            else {
+                long delay = Math.min(RETRY_SECONDS << Math.min(attempts - 1, 30), MAX_RETRY_SECONDS);
+                queue.modifyTaskLease(task, delay, TimeUnit.SECONDS);
+                retrySeconds = Math.min(retrySeconds, delay);
+            }
+        }
+        queue.deleteTask(done);
+        if (retrySeconds != Long.MAX_VALUE) {
+            // Not deduplicated like kick(): failures are rare, and the kick
+            // of the current window may already have run
+            QueueFactory.getDefaultQueue().add(null,
+                            TaskOptions.Builder.withUrl(DISPATCHER_URL).countdownMillis(retrySeconds * 1000));
+        }
+        return tasks.size();
+    }
+}
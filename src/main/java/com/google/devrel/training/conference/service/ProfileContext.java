@@ -0,0 +1,219 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Transaction;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.ProfileMemberships;
+import com.googlecode.objectify.Key;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * Request-scoped memo of the Profile entities touched while serving a request.
+ *
+ * A Profile is loaded from the datastore at most once per request outside of a
+ * transaction, and at most once per transaction attempt inside one. Reads done
+ * in a transaction never reuse a Profile loaded outside of it, so the entity
+ * group is still enlisted in the transaction.
+ *
+ * The context is bound to the current thread by ProfileContextFilter. When no
+ * context is bound (e.g. in a task queue worker) current() returns a throwaway
+ * context, so nothing is ever memoized across requests.
+ */
+public final class ProfileContext {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+    private static final Logger                      LOG     = Logger.getLogger(ProfileContext.class.getName());
+
+    private static final ThreadLocal<ProfileContext> CURRENT = new ThreadLocal<>();
+
+    /* **********************************************************************
+     * ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * Profiles read or written outside of any transaction, keyed by userId. A
+     * null value means the Profile is known not to exist.
+     */
+    private final Map<String, Profile> committedProfiles   = new HashMap<>();
+
+    /**
+     * Profiles read or written inside the transaction identified by
+     * transactionId, keyed by userId.
+     */
+    private final Map<String, Profile> transactionProfiles = new HashMap<>();
+
+    /**
+     * Id of the transaction transactionProfiles belongs to.
+     */
+    private String                     transactionId;
+
+    /**
+     * Number of Profile loads that went to Objectify.
+     */
+    private int                        datastoreLoads;
+
+    /**
+     * Number of Profile loads served from this context.
+     */
+    private int                        memoHits;
+
+    /* **********************************************************************
+     * CONSTRUCTORS
+     * **********************************************************************
+     */
+
+    private ProfileContext() {
+    }
+
+    /* **********************************************************************
+     * SETTERS AND GETTERS FOR ATTRIBUTES
+     * **********************************************************************
+     */
+
+    /**
+     * Getter for datastoreLoads.
+     *
+     * @return the number of Profile loads that went to Objectify.
+     */
+    public int getDatastoreLoads() {
+        return datastoreLoads;
+    }
+
+    /**
+     * Getter for memoHits.
+     *
+     * @return the number of Profile loads served from this context.
+     */
+    public int getMemoHits() {
+        return memoHits;
+    }
+
+    /* **********************************************************************
+     * PRIVATE METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the memo matching the current transaction state, resetting the
+     * transaction memo when a new transaction (or a retry) has started.
+     *
+     * @return the memo to read from and write to.
+     */
+    private Map<String, Profile> currentMemo() {
+        Transaction transaction = ofy().getTransaction();
+        if (transaction == null) {
+            return committedProfiles;
+        }
+        if (!transaction.getId().equals(transactionId)) {
+            transactionId = transaction.getId();
+            transactionProfiles.clear();
+        }
+        return transactionProfiles;
+    }
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Binds a new context to the current thread.
+     *
+     * @return the new context.
+     */
+    public static ProfileContext begin() {
+        ProfileContext context = new ProfileContext();
+        CURRENT.set(context);
+        return context;
+    }
+
+    /**
+     * Returns the context bound to the current thread, or a new unbound one if
+     * there is none.
+     *
+     * @return the current context.
+     */
+    public static ProfileContext current() {
+        ProfileContext context = CURRENT.get();
+        return context == null ? new ProfileContext() : context;
+    }
+
+    /**
+     * Unbinds the context from the current thread.
+     */
+    public static void end() {
+        ProfileContext context = CURRENT.get();
+        if (context != null) {
+            LOG.fine(String.format("Profile loads: %d from datastore, %d from request memo", context.datastoreLoads, context.memoHits));
+        }
+        CURRENT.remove();
+    }
+
+    /**
+     * Loads the Profile of the given user, going to Objectify only the first
+     * time it is requested in the current transaction state.
+     *
+     * @param userId
+     *            the user id
+     * @return the Profile, or null if it doesn't exist.
+     */
+    public Profile load(String userId) {
+        Map<String, Profile> memo = currentMemo();
+        if (memo.containsKey(userId)) {
+            memoHits++;
+            return memo.get(userId);
+        }
+        Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+        datastoreLoads++;
+        memo.put(userId, profile);
+        return profile;
+    }
+
+    /**
+     * Loads the Profile of the given user with its ProfileMemberships
+     * attached. When neither is loaded yet both are read with one batch get,
+     * otherwise only the memberships are read.
+     *
+     * @param userId
+     *            the user id
+     * @return the Profile, or null if it doesn't exist.
+     */
+    public Profile loadWithMemberships(String userId) {
+        Key<Profile> profileKey = Key.create(Profile.class, userId);
+        Key<ProfileMemberships> membershipsKey = ProfileMemberships.keyOf(profileKey);
+        if (!currentMemo().containsKey(userId)) {
+            // Fetch both together, load() and the memberships get below are
+            // then served from Objectify's session cache
+            ofy().load().keys(profileKey, membershipsKey);
+        }
+        Profile profile = load(userId);
+        if (profile != null && !profile.hasMemberships()) {
+            profile.attachMemberships(ofy().load().key(membershipsKey).now());
+        }
+        return profile;
+    }
+
+    /**
+     * Records a Profile that has just been saved. When saved inside a
+     * transaction the committed copy is forgotten, as the transaction may still
+     * roll back.
+     *
+     * @param profile
+     *            the saved Profile
+     */
+    public void saved(Profile profile) {
+        Map<String, Profile> memo = currentMemo();
+        memo.put(profile.getUserId(), profile);
+        if (memo != committedProfiles) {
+            committedProfiles.remove(profile.getUserId());
+        }
+    }
+}
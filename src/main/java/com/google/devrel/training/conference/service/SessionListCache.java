@@ -0,0 +1,161 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.Expiration;
+import com.google.appengine.api.memcache.MemcacheSerialization;
+import com.google.appengine.api.memcache.MemcacheService;
+import com.google.appengine.api.memcache.MemcacheService.SetPolicy;
+import com.google.appengine.api.memcache.MemcacheServiceException;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.service.CacheStats.Event;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Caches the full session list of each conference as one memcache value, so
+ * the session endpoints of a conference cost one memcache get instead of one
+ * ancestor query each. Views by type or speaker are filtered in memory.
+ *
+ * The sessions are stored as datastore Entities, like Objectify's own @Cache
+ * does, so a change of the Session class never breaks the cached values.
+ * invalidate() must be called after a session is committed. It blocks re-adds
+ * for NO_READD_MILLIS, so a list loaded before the commit cannot be put back.
+ * A list over the 1 MB memcache value limit is not cached: its reads keep
+ * running the ancestor query.
+ */
+public class SessionListCache {
+
+    /* **********************************************************************
+     * CONSTANTS
+     * **********************************************************************
+     */
+
+    private static final Logger LOG                = Logger.getLogger(SessionListCache.class.getName());
+
+    private static final String KEY_PREFIX         = "CONFERENCE_SESSIONS:";
+
+    private static final String FAMILY             = "sessions.memcache";
+
+    /**
+     * How long a list stays in memcache, bounding how long it may be stale.
+     */
+    private static final int    EXPIRATION_SECONDS = 60 * 60;
+
+    /**
+     * How long after an invalidation no list can be added back.
+     */
+    private static final long   NO_READD_MILLIS    = 2000;
+
+    /**
+     * Largest list cached, in serialized bytes, under the 1 MB memcache item
+     * limit which also counts the key.
+     */
+    private static final int    MAX_VALUE_BYTES    = 1000 * 1000;
+
+    /* **********************************************************************
+     * PUBLIC METHODS
+     * **********************************************************************
+     */
+
+    /**
+     * Returns the sessions of a conference, in key order.
+     *
+     * @param conferenceKey
+     *            the key of the conference
+     * @return the sessions of the conference.
+     */
+    @SuppressWarnings("unchecked")
+    public static List<Session> get(Key<Conference> conferenceKey) {
+        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
+        String memcacheKey = KEY_PREFIX + conferenceKey.getString();
+
+        ArrayList<Entity> entities = (ArrayList<Entity>) memcacheService.get(memcacheKey);
+        if (entities != null) {
+            CacheStats.record(FAMILY, memcacheKey, Event.HIT, 0);
+            List<Session> sessions = new ArrayList<>(entities.size());
+            for (Entity entity : entities) {
+                sessions.add(ofy().load().<Session> fromEntity(entity));
+            }
+            return sessions;
+        }
+
+        CacheStats.record(FAMILY, memcacheKey, Event.MISS, 0);
+        List<Session> sessions = ofy().load().type(Session.class).ancestor(conferenceKey).list();
+        entities = new ArrayList<>(sessions.size());
+        for (Session session : sessions) {
+            entities.add(ofy().save().toEntity(session));
+        }
+        try {
+            // Over the value size limit, serve the queried list uncached
+            int bytes = MemcacheSerialization.serialize(entities).value.length;
+            if (bytes > MAX_VALUE_BYTES) {
+                LOG.warning(String.format("Not caching the %d sessions of %s: %d bytes", sessions.size(), conferenceKey, bytes));
+            }
+            else if (memcacheService.put(memcacheKey, entities, Expiration.byDeltaSeconds(EXPIRATION_SECONDS), SetPolicy.ADD_ONLY_IF_NOT_PRESENT)) {
+                CacheStats.record(FAMILY, memcacheKey, Event.SET, bytes);
+            }
+        }
+        catch (IOException | IllegalArgumentException | MemcacheServiceException e) {
+            LOG.log(Level.WARNING, "Cannot cache the " + sessions.size() + " sessions of " + conferenceKey, e);
+        }
+        return sessions;
+    }
+
+    /**
+     * Returns the sessions of a conference of the given type.
+     *
+     * @param conferenceKey
+     *            the key of the conference
+     * @param type
+     *            the session type
+     * @return the sessions of that type.
+     */
+    public static List<Session> getByType(Key<Conference> conferenceKey, String type) {
+        List<Session> sessions = new ArrayList<>();
+        for (Session session : get(conferenceKey)) {
+            if (type.equals(session.getType())) {
+                sessions.add(session);
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Returns the sessions of a conference given by the given speaker.
+     *
+     * @param conferenceKey
+     *            the key of the conference
+     * @param speaker
+     *            the speaker
+     * @return the sessions of that speaker.
+     */
+    public static List<Session> getBySpeaker(Key<Conference> conferenceKey, String speaker) {
+        List<Session> sessions = new ArrayList<>();
+        for (Session session : get(conferenceKey)) {
+            if (speaker.equals(session.getSpeaker())) {
+                sessions.add(session);
+            }
+        }
+        return sessions;
+    }
+
+    /**
+     * Drops the session list of a conference. Call after a session of the
+     * conference has been committed.
+     *
+     * @param conferenceKey
+     *            the key of the conference
+     */
+    public static void invalidate(Key<Conference> conferenceKey) {
+        MemcacheServiceFactory.getMemcacheService().delete(KEY_PREFIX + conferenceKey.getString(), NO_READD_MILLIS);
+    }
+}
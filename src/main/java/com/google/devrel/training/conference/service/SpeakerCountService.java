@@ -0,0 +1,54 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.SpeakerCounts;
+import com.googlecode.objectify.Key;
+
+/**
+ * Maintains the SpeakerCounts of the conferences, so featured speaker decisions
+ * read one counter instead of listing the speaker's sessions.
+ */
+public class SpeakerCountService {
+
+    /**
+     * Counts one more session of a speaker. Must run in the transaction
+     * creating the session, before the session is saved: the counts of a
+     * conference created before SpeakerCounts existed are seeded from its
+     * committed sessions first.
+     *
+     * @param conferenceKey
+     *            the key of the conference
+     * @param speaker
+     *            the speaker of the new session
+     * @return the number of sessions of the speaker, including the new one.
+     */
+    public static long increment(Key<Conference> conferenceKey, String speaker) {
+        SpeakerCounts counts = ofy().load().key(SpeakerCounts.keyOf(conferenceKey)).now();
+        if (counts == null) {
+            counts = new SpeakerCounts(conferenceKey);
+            for (Session session : ofy().load().type(Session.class).ancestor(conferenceKey)) {
+                counts.increment(session.getSpeaker());
+            }
+        }
+        long sessions = counts.increment(speaker);
+        ofy().save().entity(counts).now();
+        return sessions;
+    }
+
+    /**
+     * Returns the number of sessions of a speaker in a conference.
+     *
+     * @param conferenceKey
+     *            the key of the conference
+     * @param speaker
+     *            the speaker
+     * @return the number of sessions of the speaker.
+     */
+    public static long get(Key<Conference> conferenceKey, String speaker) {
+        SpeakerCounts counts = ofy().load().key(SpeakerCounts.keyOf(conferenceKey)).now();
+        return counts == null ? 0 : counts.get(speaker);
+    }
+}
@@ -0,0 +1,92 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.domain.SpeakerIndex;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.VoidWork;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Maintains the SpeakerIndex entities and answers "all the sessions of a
+ * speaker" from them: one get of the index, cached by Objectify, and one batch
+ * get of the sessions.
+ */
+public class SpeakerIndexService {
+
+    /**
+     * Adds sessions to the index of their speaker. Must run in a transaction,
+     * so the index is saved along with the sessions.
+     *
+     * @param speaker
+     *            the speaker of the sessions
+     * @param sessions
+     *            the sessions to add
+     */
+    public static void index(String speaker, Collection<Session> sessions) {
+        SpeakerIndex index = ofy().load().key(SpeakerIndex.keyOf(speaker)).now();
+        if (index == null) {
+            index = new SpeakerIndex(speaker);
+        }
+        boolean changed = false;
+        for (Session session : sessions) {
+            changed |= index.add(session);
+        }
+        if (changed) {
+            ofy().save().entity(index).now();
+        }
+    }
+
+    /**
+     * Adds sessions to the indexes of their speakers, one transaction per
+     * speaker. Sessions already indexed are skipped.
+     *
+     * @param sessions
+     *            the sessions to add
+     */
+    public static void indexAll(Iterable<Session> sessions) {
+        Map<String, List<Session>> bySpeaker = new LinkedHashMap<>();
+        for (Session session : sessions) {
+            String speaker = SpeakerIndex.normalize(session.getSpeaker());
+            if (!bySpeaker.containsKey(speaker)) {
+                bySpeaker.put(speaker, new ArrayList<Session>());
+            }
+            bySpeaker.get(speaker).add(session);
+        }
+        for (final List<Session> speakerSessions : bySpeaker.values()) {
+            ofy().transact(new VoidWork() {
+                @Override
+                public void vrun() {
+                    index(speakerSessions.get(0).getSpeaker(), speakerSessions);
+                }
+            });
+        }
+    }
+
+    /**
+     * Returns the sessions of a speaker across all the conferences, in start
+     * order.
+     *
+     * @param speaker
+     *            the speaker
+     * @return the sessions of the speaker.
+     */
+    public static List<Session> getSessions(String speaker) {
+        SpeakerIndex index = ofy().load().key(SpeakerIndex.keyOf(speaker)).now();
+        if (index == null) {
+            return new ArrayList<>(0);
+        }
+        List<Key<Session>> sessionKeys = new ArrayList<>();
+        for (SpeakerIndex.Item item : index.getItems()) {
+            sessionKeys.add(item.getSessionKey());
+        }
+        // The map keeps the order of the keys
+        return new ArrayList<>(ofy().load().keys(sessionKeys).values());
+    }
+}
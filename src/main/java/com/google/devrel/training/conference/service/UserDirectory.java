@@ -0,0 +1,48 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.users.User;
+import com.google.devrel.training.conference.domain.AppEngineUser;
+
+/**
+ * Maintains the e-mail to user directory stored as AppEngineUser entities.
+ *
+ * AppEngineUser is cached by Objectify, so a lookup is a single memcache get
+ * and only goes to the datastore on a miss. Entries are written when a
+ * Profile is created or saved, outside of any running transaction, as they
+ * belong to their own entity group.
+ */
+public class UserDirectory {
+
+    /**
+     * Records the given user in the directory, unless it is already there.
+     *
+     * @param user
+     *            the logged-in user
+     */
+    public static void record(User user) {
+        if (user.getEmail() == null || user.getUserId() == null) {
+            return;
+        }
+        AppEngineUser entry = ofy().transactionless().load().key(AppEngineUser.keyOf(user.getEmail())).now();
+        if (entry == null || !user.getUserId().equals(entry.getUserId())) {
+            ofy().transactionless().save().entity(new AppEngineUser(user)).now();
+        }
+    }
+
+    /**
+     * Resolves an e-mail address to the user id it belongs to.
+     *
+     * @param email
+     *            the e-mail address, in any case
+     * @return the user id, or null if no user with that e-mail has a Profile.
+     */
+    public static String findUserId(String email) {
+        if (email == null) {
+            return null;
+        }
+        AppEngineUser entry = ofy().transactionless().load().key(AppEngineUser.keyOf(email)).now();
+        return entry == null ? null : entry.getUserId();
+    }
+}
@@ -0,0 +1,176 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.ProfileMemberships;
+import com.google.devrel.training.conference.domain.WishlistEntry;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.Result;
+import com.googlecode.objectify.Work;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Reads and writes wishlists stored as WishlistEntry children of the Profile.
+ *
+ * Wishlists saved before WishlistEntry existed are still held in the Profile's
+ * ProfileMemberships. They are read alongside the entries, and moved to
+ * entries by migrate(), either lazily on removal or by MigrateWishlistsServlet.
+ */
+public class WishlistService {
+
+    /**
+     * Returns the websafe keys of the sessions in a user's wishlist.
+     *
+     * @param profile
+     *            the user's Profile
+     * @return the websafe session keys, legacy ones included.
+     */
+    public static List<String> getWebsafeSessionKeys(Profile profile) {
+        Set<String> websafeSessionKeys = new LinkedHashSet<>(profile.getMemberships().getSessionKeysWishlist());
+        for (Key<WishlistEntry> entryKey : ofy().load().type(WishlistEntry.class).ancestor(profile.getKey()).keys()) {
+            websafeSessionKeys.add(entryKey.getName());
+        }
+        return new ArrayList<>(websafeSessionKeys);
+    }
+
+    /**
+     * Returns whether a session is in a user's wishlist.
+     *
+     * @param profile
+     *            the user's Profile
+     * @param websafeSessionKey
+     *            the websafe key of the session
+     * @return true if the session is in the wishlist.
+     */
+    public static boolean contains(Profile profile, String websafeSessionKey) {
+        return profile.getMemberships().getSessionKeysWishlist().contains(websafeSessionKey)
+                        || ofy().load().key(WishlistEntry.keyOf(profile.getKey(), websafeSessionKey)).now() != null;
+    }
+
+    /**
+     * Returns which of the given sessions are in a user's wishlist, with a
+     * single batch get.
+     *
+     * @param profile
+     *            the user's Profile
+     * @param websafeSessionKeys
+     *            the websafe keys of the sessions
+     * @return the websafe keys of the sessions which are in the wishlist.
+     */
+    public static Set<String> containing(Profile profile, Collection<String> websafeSessionKeys) {
+        Set<String> contained = new HashSet<>(profile.getMemberships().getSessionKeysWishlist());
+        contained.retainAll(websafeSessionKeys);
+        List<Key<WishlistEntry>> entryKeys = new ArrayList<>(websafeSessionKeys.size());
+        for (String websafeSessionKey : websafeSessionKeys) {
+            entryKeys.add(WishlistEntry.keyOf(profile.getKey(), websafeSessionKey));
+        }
+        Map<Key<WishlistEntry>, WishlistEntry> entries = ofy().load().keys(entryKeys);
+        for (WishlistEntry entry : entries.values()) {
+            contained.add(entry.getWebsafeSessionKey());
+        }
+        return contained;
+    }
+
+    /**
+     * Adds and removes sessions from a user's wishlist with a single batch put
+     * and a single batch delete, issued concurrently.
+     *
+     * @param profile
+     *            the user's Profile
+     * @param websafeSessionKeysToAdd
+     *            the websafe keys of the sessions to add
+     * @param websafeSessionKeysToRemove
+     *            the websafe keys of the sessions to remove
+     */
+    public static void apply(Profile profile, Collection<String> websafeSessionKeysToAdd, Collection<String> websafeSessionKeysToRemove) {
+        List<String> legacyKeys = profile.getMemberships().getSessionKeysWishlist();
+        List<WishlistEntry> entries = new ArrayList<>(websafeSessionKeysToAdd.size());
+        for (String websafeSessionKey : websafeSessionKeysToAdd) {
+            entries.add(new WishlistEntry(profile.getKey(), websafeSessionKey));
+        }
+        List<Key<WishlistEntry>> entryKeys = new ArrayList<>(websafeSessionKeysToRemove.size());
+        boolean removesLegacyKeys = false;
+        for (String websafeSessionKey : websafeSessionKeysToRemove) {
+            entryKeys.add(WishlistEntry.keyOf(profile.getKey(), websafeSessionKey));
+            removesLegacyKeys |= legacyKeys.contains(websafeSessionKey);
+        }
+        if (removesLegacyKeys) {
+            migrate(profile.getUserId());
+        }
+        Result<?> saved = ofy().save().entities(entries);
+        Result<?> deleted = ofy().delete().keys(entryKeys);
+        saved.now();
+        deleted.now();
+    }
+
+    /**
+     * Adds a session to a user's wishlist with a single put.
+     *
+     * @param profile
+     *            the user's Profile
+     * @param websafeSessionKey
+     *            the websafe key of the session
+     */
+    public static void add(Profile profile, String websafeSessionKey) {
+        ofy().save().entity(new WishlistEntry(profile.getKey(), websafeSessionKey)).now();
+    }
+
+    /**
+     * Removes a session from a user's wishlist with a single delete, migrating
+     * a legacy wishlist first when the session is held there.
+     *
+     * @param profile
+     *            the user's Profile
+     * @param websafeSessionKey
+     *            the websafe key of the session
+     */
+    public static void remove(Profile profile, String websafeSessionKey) {
+        if (profile.getMemberships().getSessionKeysWishlist().contains(websafeSessionKey)) {
+            migrate(profile.getUserId());
+        }
+        ofy().delete().key(WishlistEntry.keyOf(profile.getKey(), websafeSessionKey)).now();
+    }
+
+    /**
+     * Moves the legacy wishlist of a user from its ProfileMemberships to
+     * WishlistEntry entities, in one transaction.
+     *
+     * @param userId
+     *            the user id
+     * @return the number of sessions moved.
+     */
+    public static int migrate(final String userId) {
+        return ofy().transact(new Work<Integer>() {
+
+            @Override
+            public Integer run() {
+                Profile profile = ProfileContext.current().loadWithMemberships(userId);
+                if (profile == null) {
+                    return 0;
+                }
+                ProfileMemberships memberships = profile.getMemberships();
+                List<String> legacyKeys = memberships.getSessionKeysWishlist();
+                if (legacyKeys.isEmpty()) {
+                    return 0;
+                }
+                List<Object> entities = new ArrayList<>(legacyKeys.size() + 1);
+                for (String websafeSessionKey : legacyKeys) {
+                    entities.add(new WishlistEntry(profile.getKey(), websafeSessionKey));
+                }
+                memberships.clearSessionKeysWishlist();
+                entities.addAll(profile.membershipsToSave());
+                ofy().save().entities(entities).now();
+                ProfileContext.current().saved(profile);
+                return legacyKeys.size();
+            }
+        });
+    }
+}
@@ -0,0 +1,33 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.CacheStats;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * An admin-only servlet sending back the CacheStats report of the instance
+ * serving the request, one structured line per cache family. With reset=true
+ * the counters are cleared after the report.
+ */
+@SuppressWarnings("serial")
+public class CacheStatsServlet extends HttpServlet {
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+                    throws ServletException, IOException {
+        response.setContentType("text/plain");
+        PrintWriter writer = response.getWriter();
+        for (String line : CacheStats.report()) {
+            writer.println(line);
+        }
+        if (Boolean.parseBoolean(request.getParameter("reset"))) {
+            CacheStats.clear();
+        }
+    }
+}
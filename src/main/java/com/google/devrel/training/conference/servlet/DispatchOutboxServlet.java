@@ -0,0 +1,66 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.Outbox;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet applying the side effects recorded in the Outbox. It dispatches
+ * the batches of the "outbox" pull queue until the queue is empty, or until
+ * its time budget is spent, then starts itself again.
+ *
+ * Like SendConfirmationEmailServlet, it also starts itself again whenever its
+ * last batch found transactions, as the ones committed since had their kick
+ * swallowed by the current window, and cron runs it every minute (GET).
+ */
+@SuppressWarnings("serial")
+public class DispatchOutboxServlet extends HttpServlet {
+
+    private static final Logger LOG           = Logger.getLogger(DispatchOutboxServlet.class.getName());
+
+    /**
+     * How long batches are dispatched before the dispatcher starts itself
+     * again, well within the request deadline.
+     */
+    private static final long   BUDGET_MILLIS = 60 * 1000;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+                    throws ServletException, IOException {
+        // Started by cron
+        doPost(request, response);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+                    throws ServletException, IOException {
+        long start = System.currentTimeMillis();
+        int batches = 0;
+        int transactions = 0;
+        int leased;
+        do {
+            leased = Outbox.dispatchBatch();
+            batches++;
+            transactions += leased;
+        }
+        while (leased == Outbox.BATCH_SIZE && System.currentTimeMillis() - start < BUDGET_MILLIS);
+
+        if (leased > 0) {
+            // Out of budget with more to dispatch, or transactions committed
+            // since the last lease, their own kick swallowed by this window
+            Outbox.kick();
+        }
+
+        if (transactions > 0) {
+            LOG.info(String.format("Dispatched the events of %d transactions in %d batches, %d ms",
+                            transactions, batches, System.currentTimeMillis() - start));
+        }
+        response.setStatus(204);
+    }
+}
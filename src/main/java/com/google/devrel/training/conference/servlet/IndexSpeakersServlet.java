@@ -0,0 +1,71 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Session;
+import com.google.devrel.training.conference.service.SpeakerIndexService;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet adding the sessions created before SpeakerIndex existed to the
+ * indexes of their speakers. Each task handles one batch of sessions and
+ * enqueues the next one with the query cursor. Indexing is idempotent, so the
+ * servlet can safely be run again.
+ *
+ * A GET (from an admin) starts the indexing from the first session.
+ */
+@SuppressWarnings("serial")
+public class IndexSpeakersServlet extends HttpServlet {
+
+    private static final Logger LOG        = Logger.getLogger(IndexSpeakersServlet.class.getName());
+
+    private static final String URL        = "/tasks/index_speakers";
+
+    private static final int    BATCH_SIZE = 100;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) 
+                    throws ServletException, IOException {
+        QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(URL));
+        response.setStatus(204);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) 
+                    throws ServletException, IOException {
+        Query<Session> query = ofy().load().type(Session.class).limit(BATCH_SIZE);
+        String cursor = request.getParameter("cursor");
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+
+        List<Session> sessions = new ArrayList<>(BATCH_SIZE);
+        QueryResultIterator<Session> iterator = query.iterator();
+        while (iterator.hasNext()) {
+            sessions.add(iterator.next());
+        }
+        SpeakerIndexService.indexAll(sessions);
+        LOG.info(String.format("Indexed %d sessions", sessions.size()));
+
+        // A full batch means there may be more sessions, continue from here
+        if (sessions.size() == BATCH_SIZE) {
+            QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(URL)
+                            .param("cursor", iterator.getCursor().toWebSafeString()));
+        }
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,74 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.MapperService;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet running the jobs of MapperService.
+ *
+ * A GET (from an admin) with mapper=name and shards=N starts a job of the
+ * mapper of that name in Migrations, sliceSize=M optionally making its slices
+ * smaller than MapperService.MAX_SLICE_SIZE. A GET with job=id sends back its
+ * progress, and with resume=true also restarts its unfinished shards. Each
+ * slice of a shard is a POST task.
+ */
+@SuppressWarnings("serial")
+public class MapperServlet extends HttpServlet {
+
+    private static final Logger LOG            = Logger.getLogger(MapperServlet.class.getName());
+
+    private static final int    DEFAULT_SHARDS = 8;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+                    throws ServletException, IOException {
+        String jobId = request.getParameter("job");
+        String mapper = request.getParameter("mapper");
+        if (jobId == null && mapper != null) {
+            String shards = request.getParameter("shards");
+            String sliceSize = request.getParameter("sliceSize");
+            try {
+                jobId = MapperService.start(mapper, shards == null ? DEFAULT_SHARDS : Integer.parseInt(shards),
+                                sliceSize == null ? MapperService.MAX_SLICE_SIZE : Integer.parseInt(sliceSize));
+            }
+            catch (IllegalArgumentException e) {
+                response.sendError(400, e.getMessage());
+                return;
+            }
+            LOG.info(String.format("Started job %s of mapper %s", jobId, mapper));
+        }
+        else if (jobId != null && Boolean.parseBoolean(request.getParameter("resume"))) {
+            LOG.info(String.format("Resumed %d shards of job %s", MapperService.resume(jobId), jobId));
+        }
+        else if (jobId == null) {
+            response.sendError(400, "Either mapper or job is required");
+            return;
+        }
+
+        response.setContentType("text/plain");
+        PrintWriter writer = response.getWriter();
+        for (String line : MapperService.progress(jobId)) {
+            writer.println(line);
+        }
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response)
+                    throws ServletException, IOException {
+        String jobId = request.getParameter("job");
+        int shard = Integer.parseInt(request.getParameter("shard"));
+        int slice = Integer.parseInt(request.getParameter("slice"));
+        if (MapperService.runSlice(jobId, shard, slice)) {
+            LOG.info(String.format("Finished shard %d of job %s in %d slices", shard, jobId, slice + 1));
+        }
+        response.setStatus(204);
+    }
+}
@@ -0,0 +1,72 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.appengine.api.datastore.Cursor;
+import com.google.appengine.api.datastore.QueryResultIterator;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.TaskOptions;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.service.WishlistService;
+import com.googlecode.objectify.Key;
+import com.googlecode.objectify.cmd.Query;
+
+import java.io.IOException;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * A servlet moving legacy wishlists from ProfileMemberships to WishlistEntry
+ * entities. Each task handles one batch of profiles and enqueues the next one
+ * with the query cursor, so the migration never hits the request deadline.
+ * Each profile is migrated in its own transaction, as registrations write the
+ * same ProfileMemberships concurrently.
+ *
+ * A GET (from an admin) starts the migration from the first profile.
+ */
+@SuppressWarnings("serial")
+public class MigrateWishlistsServlet extends HttpServlet {
+
+    private static final Logger LOG        = Logger.getLogger(MigrateWishlistsServlet.class.getName());
+
+    private static final String URL        = "/tasks/migrate_wishlists";
+
+    private static final int    BATCH_SIZE = 100;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) 
+                    throws ServletException, IOException {
+        QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(URL));
+        response.setStatus(204);
+    }
+
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) 
+                    throws ServletException, IOException {
+        Query<Profile> query = ofy().load().type(Profile.class).limit(BATCH_SIZE);
+        String cursor = request.getParameter("cursor");
+        if (cursor != null) {
+            query = query.startAt(Cursor.fromWebSafeString(cursor));
+        }
+
+        int profiles = 0;
+        int moved = 0;
+        QueryResultIterator<Key<Profile>> iterator = query.keys().iterator();
+        while (iterator.hasNext()) {
+            moved += WishlistService.migrate(iterator.next().getName());
+            profiles++;
+        }
+        LOG.info(String.format("Migrated %d wishlist entries of %d profiles", moved, profiles));
+
+        // A full batch means there may be more profiles, continue from here
+        if (profiles == BATCH_SIZE) {
+            QueueFactory.getDefaultQueue().add(TaskOptions.Builder.withUrl(URL)
+                            .param("cursor", iterator.getCursor().toWebSafeString()));
+        }
+        response.setStatus(204);
+    }
+}
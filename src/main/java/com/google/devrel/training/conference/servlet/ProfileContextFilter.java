@@ -0,0 +1,39 @@
+package com.google.devrel.training.conference.servlet;
+
+import com.google.devrel.training.conference.service.ProfileContext;
+
+import java.io.IOException;
+
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+
+/**
+ * A filter binding a ProfileContext to every request, so the caller's Profile
+ * is loaded at most once per request.
+ */
+public class ProfileContextFilter implements Filter {
+
+    @Override
+    public void init(FilterConfig filterConfig) throws ServletException {
+    }
+
+    @Override
+    public void doFilter(ServletRequest request, ServletResponse response, FilterChain chain)
+                    throws IOException, ServletException {
+        ProfileContext.begin();
+        try {
+            chain.doFilter(request, response);
+        }
+        finally {
+            ProfileContext.end();
+        }
+    }
+
+    @Override
+    public void destroy() {
+    }
+}
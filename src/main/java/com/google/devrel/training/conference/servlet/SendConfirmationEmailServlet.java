@@ -1,68 +1,121 @@
 package com.google.devrel.training.conference.servlet;
 
-import com.google.appengine.api.utils.SystemProperty;
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
 import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.DeadLetterEmail;
+import com.google.devrel.training.conference.service.EmailService;
+import com.google.devrel.training.conference.service.EmailService.BatchReport;
 
 import java.io.IOException;
-import java.util.Properties;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import javax.mail.Message;
 import javax.mail.MessagingException;
-import javax.mail.Session;
-import javax.mail.Transport;
-import javax.mail.internet.InternetAddress;
-import javax.mail.internet.MimeMessage;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 /**
- * A servlet for sending a notification e-mail.
+ * A servlet for sending the notification e-mails. It delivers the batches of
+ * the "email" pull queue through EmailService until the queue is empty, or
+ * until its time budget is spent, then starts itself again.
+ *
+ * A notification kicks the worker only once per window, so one committing
+ * after the last lease of the run it kicked would be left behind: the worker
+ * therefore starts itself again whenever its last batch found notifications,
+ * and cron runs it every minute (GET) as a fallback.
+ *
+ * A task carrying the parameters of a single e-mail, enqueued before the pull
+ * queue existed, is still sent on its own first.
  */
 @SuppressWarnings("serial")
 public class SendConfirmationEmailServlet extends HttpServlet {
 
-    private static final Logger LOG = Logger.getLogger(SendConfirmationEmailServlet.class.getName());
+    private static final Logger LOG           = Logger.getLogger(SendConfirmationEmailServlet.class.getName());
+
+    /**
+     * How long batches are delivered before the worker starts itself again,
+     * well within the request deadline.
+     */
+    private static final long   BUDGET_MILLIS = 60 * 1000;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response) 
+                    throws ServletException, IOException {
+        // Started by cron
+        doPost(request, response);
+    }
 
     @Override
     protected void doPost(HttpServletRequest request, HttpServletResponse response) 
                     throws ServletException, IOException {
-        String emailType = request.getParameter("emailType");
-        String emailInfo = "";
-        String subject = "";
-        String body = "";
-        
-        if (emailType.equals(Constants.NEW_CONFERENCE)) {
-            emailInfo = request.getParameter("conferenceInfo");
-            subject = "You created a new Conference!";
-            body = "Hi, you have created a following conference.\n" + emailInfo;
+        long start = System.currentTimeMillis();
+        if (request.getParameter("email") != null) {
+            sendSingle(request);
         }
-        else if (emailType.equals(Constants.NEW_SESSION)) {
-            emailInfo = request.getParameter("sessionInfo");
-            subject = "You created a new Session!";
-            body = "Hi, you have created a following session.\n" + emailInfo;
 
+        int batches = 0;
+        int notifications = 0;
+        int messages = 0;
+        long maxLatencyMillis = 0;
+        BatchReport report;
+        do {
+            try {
+                report = EmailService.deliverBatch();
+            }
+            catch (MessagingException e) {
+                LOG.log(Level.WARNING, "Failed to connect the mail transport", e);
+                throw new RuntimeException(e);
+            }
+            batches++;
+            notifications += report.getNotifications();
+            messages += report.getMessages();
+            maxLatencyMillis = Math.max(maxLatencyMillis, report.getMaxLatencyMillis());
         }
+        while (report.getNotifications() == EmailService.BATCH_SIZE && System.currentTimeMillis() - start < BUDGET_MILLIS);
 
-        String email = request.getParameter("email");
+        if (report.getNotifications() > 0) {
+            // Out of budget with more to deliver, or notifications committed
+            // since the last lease, their own kick swallowed by this window
+            EmailService.kick();
+        }
 
-        Properties props = new Properties();
-        Session session = Session.getDefaultInstance(props, null);
+        long elapsed = System.currentTimeMillis() - start;
+        if (notifications > 0) {
+            LOG.info(String.format("Delivered %d notifications in %d messages, %d batches of %.1f, %.1f messages/s, max latency %d ms",
+                            notifications, messages, batches, (float) notifications / batches,
+                            elapsed == 0 ? 0f : messages * 1000f / elapsed, maxLatencyMillis));
+        }
+        response.setStatus(204);
+    }
+
+    /**
+     * Sends the e-mail of a task enqueued before the pull queue existed. A
+     * permanent failure is kept as a DeadLetterEmail, a transient one is
+     * retried by the push queue.
+     */
+    private void sendSingle(HttpServletRequest request) {
+        String emailType = request.getParameter("emailType");
+        String email = request.getParameter("email");
+        boolean conference = Constants.NEW_CONFERENCE.equals(emailType);
+        String subject = conference ? "You created a new Conference!" : "You created a new Session!";
+        String body = "Hi, you have created a following " + (conference ? "conference" : "session") + ".\n"
+                        + request.getParameter(conference ? "conferenceInfo" : "sessionInfo");
         try {
-            Message message = new MimeMessage(session);
-            InternetAddress from = new InternetAddress(String.format("noreply@%s.appspotmail.com", SystemProperty.applicationId.get()), "Conference Central");
-            message.setFrom(from);
-            message.addRecipient(Message.RecipientType.TO, new InternetAddress(email, ""));
-            message.setSubject(subject);
-            message.setText(body);
-            Transport.send(message);
+            EmailService.send(email, subject, body);
         }
-        catch (MessagingException e) {
+        catch (MessagingException | IOException e) {
             LOG.log(Level.WARNING, String.format("Failed to send an mail to %s", email), e);
+            if (EmailService.isPermanent(e)) {
+                // Retrying cannot help, keep the e-mail aside and end the task
+                ofy().save().entity(new DeadLetterEmail(email, emailType, null,
+                                request.getIntHeader("X-AppEngine-TaskRetryCount") + 1, e.toString())).now();
+                return;
+            }
+            // The push queue retries the task, with its backoff
             throw new RuntimeException(e);
         }
     }
-}
\ No newline at end of file
+}
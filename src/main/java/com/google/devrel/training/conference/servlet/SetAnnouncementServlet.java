@@ -1,63 +1,35 @@
 package com.google.devrel.training.conference.servlet;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.logging.Logger;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
-import com.google.appengine.api.memcache.MemcacheService;
-import com.google.appengine.api.memcache.MemcacheServiceFactory;
-import com.google.appengine.repackaged.com.google.common.base.Joiner;
-import com.google.devrel.training.conference.Constants;
-import com.google.devrel.training.conference.domain.Conference;
-
-import static com.google.devrel.training.conference.service.OfyService.ofy;
+import com.google.devrel.training.conference.service.NearlySoldOutService;
 
 /**
- * A servlet for putting announcements in memcache. This announcement announces
- * conferences that are nearly sold out (defined as having 1-5 seats left)
+ * A servlet checking the consistency of the announcement of the conferences
+ * that are nearly sold out (defined as having 1-5 seats left). The set is
+ * maintained by the registration endpoints through NearlySoldOutService; this
+ * cron only rebuilds it with a scan, in case an update was lost.
+ *
+ * The GET of the cron starts the scan, each slice of the scan is then a POST
+ * task to the same URL.
  *
  */
 
 @SuppressWarnings("serial")
 public class SetAnnouncementServlet extends HttpServlet {
 
+    private static final Logger LOG = Logger.getLogger(SetAnnouncementServlet.class.getName());
+
     @Override
     protected void doGet(HttpServletRequest request, HttpServletResponse response) 
                     throws ServletException, IOException {
-        // Query for conferences with less than 5 seats left
-        Iterable<Conference> conferences = ofy().load().type(Conference.class)
-                                            .filter("seatsAvailable <", 6)
-                                            .filter("seatsAvailable >", 0);
-
-        // Get the names of the nearly sold out conferences
-        List<String> conferenceNames = new ArrayList<>(0);
-        for (Conference c : conferences) {
-            conferenceNames.add(c.getName());
-        }
-
-        if (conferenceNames.size() > 0) {
-            StringBuilder announcementStringBuilder 
-                    = new StringBuilder("Oh look! Last chance to attend! The following conferences are nearly sold out: ");
-
-            Joiner joiner = Joiner.on(", ").skipNulls();
-            announcementStringBuilder.append(joiner.join(conferenceNames));
-
-            // Get the MemCache Service
-            MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
-
-            // Put the announcement String in memcache,
-            // keyed by Constants.MEMCACHE_ANNOUNCEMENTS_KEY
-            String announcementKey = Constants.MEMCACHE_ANNOUNCEMENTS_KEY;
-            String announcementText = announcementStringBuilder.toString();
-
-            memcacheService.put(announcementKey, announcementText);
-
-        }
+        LOG.info("Started scan " + NearlySoldOutService.startScan());
 
         // Set the response status to 204, which means
         // the request was successful but there's no data to send back
@@ -65,4 +37,15 @@ public class SetAnnouncementServlet extends HttpServlet {
         response.setStatus(204);
     }
 
+    @Override
+    protected void doPost(HttpServletRequest request, HttpServletResponse response) 
+                    throws ServletException, IOException {
+        String scanId = request.getParameter("scanId");
+        int slice = Integer.parseInt(request.getParameter("slice"));
+        if (NearlySoldOutService.scanSlice(scanId, slice)) {
+            LOG.info(String.format("Finished scan %s in %d slices", scanId, slice + 1));
+        }
+        response.setStatus(204);
+    }
+
 }
@@ -0,0 +1,94 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.service.AnnouncementCache;
+import com.google.devrel.training.conference.service.AnnouncementStore;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.google.devrel.training.conference.service.SessionListCache;
+import com.googlecode.objectify.Key;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * The handler of /_ah/warmup, called by App Engine before a new instance
+ * receives user requests. It registers the Objectify entities, fills the
+ * in-process caches with the likely busiest conferences, the announcement and
+ * the featured speaker, and runs the conference and session list reads once,
+ * so none of it is paid by the first user request. The Endpoints
+ * configuration is loaded at startup too, as SystemServiceServlet is marked
+ * load-on-startup.
+ *
+ * A new instance has no access counters of its own, CacheStats being per
+ * instance, so the busiest conferences are guessed from the registrations:
+ * the open conferences with the fewest seats left. Sold-out conferences are
+ * left out, as nobody can register to them any more.
+ *
+ * The time taken by each step is logged and sent back.
+ */
+@SuppressWarnings("serial")
+public class WarmupServlet extends HttpServlet {
+
+    private static final Logger LOG                 = Logger.getLogger(WarmupServlet.class.getName());
+
+    /**
+     * Number of conferences put in ConferenceCache.
+     */
+    private static final int    PRELOAD_CONFERENCES = 100;
+
+    /**
+     * Number of the busiest conferences read through the request path, their
+     * session lists included.
+     */
+    private static final int    READ_CONFERENCES    = 10;
+
+    @Override
+    protected void doGet(HttpServletRequest request, HttpServletResponse response)
+                    throws ServletException, IOException {
+        long start = System.currentTimeMillis();
+
+        // Forces the OfyService static registration
+        ofy();
+        long registered = System.currentTimeMillis();
+
+        // The open conferences with the fewest seats left are the ones most
+        // registered to, hence most requested
+        List<Conference> conferences = ofy().load().type(Conference.class)
+                                        .filter("seatsAvailable >", 0)
+                                        .order("seatsAvailable")
+                                        .limit(PRELOAD_CONFERENCES)
+                                        .list();
+        ConferenceCache.preload(conferences);
+        long conferencesLoaded = System.currentTimeMillis();
+
+        AnnouncementStore.get();
+        AnnouncementCache.get(Constants.MEMCACHE_FEATURED_SPEAKER_KEY);
+        long announcementsLoaded = System.currentTimeMillis();
+
+        // Runs the reads of getConference and getConferenceSessions, which
+        // also fills memcache with the session lists
+        int reads = Math.min(READ_CONFERENCES, conferences.size());
+        for (Conference conference : conferences.subList(0, reads)) {
+            ConferenceCache.get(conference.getWebsafeKey());
+            SessionListCache.get(Key.<Conference> create(conference.getWebsafeKey()));
+        }
+        long end = System.currentTimeMillis();
+
+        String report = String.format("Warmed up in %d ms: registration %d ms, %d conferences %d ms, announcements %d ms, %d reads %d ms",
+                        end - start, registered - start, conferences.size(), conferencesLoaded - registered,
+                        announcementsLoaded - conferencesLoaded, reads, end - announcementsLoaded);
+        LOG.info(report);
+
+        response.setContentType("text/plain");
+        response.getWriter().println(report);
+    }
+}
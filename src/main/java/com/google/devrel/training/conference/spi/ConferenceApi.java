@@ -5,26 +5,32 @@ import static com.google.devrel.training.conference.service.OfyService.factory;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.google.api.server.spi.config.Api;
 import com.google.api.server.spi.config.ApiMethod;
 import com.google.api.server.spi.config.ApiMethod.HttpMethod;
 import com.google.api.server.spi.config.Named;
+import com.google.api.server.spi.config.Nullable;
 import com.google.api.server.spi.response.ConflictException;
 import com.google.api.server.spi.response.ForbiddenException;
 import com.google.api.server.spi.response.NotFoundException;
 import com.google.api.server.spi.response.UnauthorizedException;
-import com.google.appengine.api.memcache.MemcacheService;
-import com.google.appengine.api.memcache.MemcacheServiceFactory;
-import com.google.appengine.api.taskqueue.Queue;
-import com.google.appengine.api.taskqueue.QueueFactory;
-import com.google.appengine.api.taskqueue.TaskOptions;
 import com.google.appengine.api.users.User;
 import com.google.devrel.training.conference.Constants;
 import com.google.devrel.training.conference.domain.Announcement;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Dashboard;
+import com.google.devrel.training.conference.domain.FeaturedSpeaker;
 import com.google.devrel.training.conference.domain.Profile;
 import com.google.devrel.training.conference.domain.Session;
 import com.google.devrel.training.conference.form.ConferenceForm;
@@ -33,6 +39,20 @@ import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
 import com.google.devrel.training.conference.form.SessionForm;
 import com.google.devrel.training.conference.form.SessionQueryForm;
+import com.google.devrel.training.conference.form.WishlistForm;
+import com.google.devrel.training.conference.service.AnnouncementCache;
+import com.google.devrel.training.conference.service.AnnouncementStore;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.google.devrel.training.conference.service.FeaturedSpeakerService;
+import com.google.devrel.training.conference.service.MissingKeyCache;
+import com.google.devrel.training.conference.service.Outbox;
+import com.google.devrel.training.conference.service.Outbox.Event;
+import com.google.devrel.training.conference.service.SessionListCache;
+import com.google.devrel.training.conference.service.SpeakerCountService;
+import com.google.devrel.training.conference.service.SpeakerIndexService;
+import com.google.devrel.training.conference.service.ProfileContext;
+import com.google.devrel.training.conference.service.UserDirectory;
+import com.google.devrel.training.conference.service.WishlistService;
 import com.google.devrel.training.conference.utils.Time24HoursValidator;
 import com.googlecode.objectify.Key;
 import com.googlecode.objectify.Work;
@@ -96,6 +116,45 @@ public class ConferenceApi {
         }
     }
 
+    /**
+     * A user found by e-mail address, e.g. to be invited to a conference.
+     */
+    public static class UserByEmail {
+
+        private final String email;
+        private final String userId;
+
+        public UserByEmail(String email, String userId) {
+            this.email = email;
+            this.userId = userId;
+        }
+
+        public String getEmail() {
+            return email;
+        }
+
+        public String getUserId() {
+            return userId;
+        }
+    }
+
+    /**
+     * The outcome of one session of a batch wishlist update.
+     */
+    public static class WishlistItemResult extends WrappedBoolean {
+
+        private final String websafeSessionKey;
+
+        public WishlistItemResult(String websafeSessionKey, Boolean result, String reason) {
+            super(result, reason);
+            this.websafeSessionKey = websafeSessionKey;
+        }
+
+        public String getWebsafeSessionKey() {
+            return websafeSessionKey;
+        }
+    }
+
     
    /* **********************************************************************
     * ATTRIBUTES
@@ -122,48 +181,36 @@ public class ConferenceApi {
     * **********************************************************************
     */
     /**
-     * Adds a speaker announcement to memcache if speaker will talk at more than
-     * one session in the conference
-     * 
-     * @param conferenceKey 
-     *              the Conference key
-     * @param conference
-     *              The conference Object
-     * @param speaker
-     *            the speaker to check to be added to memcache
+     * Updates a Profile still carrying the key lists stored inline before
+     * ProfileMemberships existed, saving its memberships and the Profile with
+     * the inline lists cleared in one transaction, so a concurrent
+     * registration cannot be lost.
+     *
+     * @param userId
+     *            the user id
+     * @param displayName
+     *            the new display name, null to keep it
+     * @param teeShirtSize
+     *            the new tee shirt size, null to keep it
+     * @return the saved Profile.
      */
-    private void checkForSpeakerAnnouncement(Key<Conference> conferenceKey, Conference conference, String speaker) {
-        // Check if speaker has more than one session. If yes, add announcement
-
-        List<Session> conferenceSessionsWithSpeaker = ofy().load().type(Session.class)
-                                                        .ancestor(conferenceKey)
-                                                        .filter("speaker =", speaker)
-                                                        .list();
-        
-        if (conferenceSessionsWithSpeaker.size() > 1) {
-            StringBuilder speakerAnnouncementStringBuilder = new StringBuilder("Good news! ")
-                                                                    .append(speaker)
-                                                                    .append(" is having the following sessions at conference ")
-                                                                    .append(conference.getName())
-                                                                    .append(".");
-            
-            for (Session s : conferenceSessionsWithSpeaker) {
-                speakerAnnouncementStringBuilder.append(" • ")
-                                                .append(s.getName());
+    private static Profile saveLegacyProfile(final String userId, final String displayName, final TeeShirtSize teeShirtSize) {
+        return ofy().transact(new Work<Profile>() {
+            @Override
+            public Profile run() {
+                Profile profile = ProfileContext.current().loadWithMemberships(userId);
+                profile.update(displayName, teeShirtSize);
+                List<Object> entities = profile.membershipsToSave();
+                if (!entities.contains(profile)) {
+                    entities.add(profile);
+                }
+                ofy().save().entities(entities).now();
+                ProfileContext.current().saved(profile);
+                return profile;
             }
-
-            // Get the MemCache Service
-            MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
-
-            // Put the speaker announcement String in memcache
-            String announcementText = speakerAnnouncementStringBuilder.toString();
-
-            memcacheService.put(Constants.MEMCACHE_FEATURED_SPEAKER_KEY, announcementText);
-
-        }
-
+        });
     }
-    
+
     /**
      * Get the display name from the user's email. For example, if the email is
      * lemoncake@example.com, then the display name becomes "lemoncake."
@@ -184,9 +231,8 @@ public class ConferenceApi {
      * @return user's Profile
      */
     private static Profile getProfileFromUser(User user) {
-        // First fetch the user's Profile from the datastore.
-        Key<Profile> profileKey = Key.create(Profile.class, user.getUserId());
-        Profile profile = ofy().load().key(profileKey).now();
+        // First fetch the user's Profile, at most once per request.
+        Profile profile = ProfileContext.current().load(user.getUserId());
         if (profile == null) {
             // Create a new Profile if it doesn't exist.
             // Use default displayName and teeShirtSize
@@ -198,6 +244,25 @@ public class ConferenceApi {
         }
         return profile;
     }
+
+    /**
+     * Records the side effects of a change of the seats of a conference: the
+     * invalidation of the cached conference, and the update of the nearly
+     * sold out set if the conference crossed the threshold. Must be called in
+     * the transaction saving the conference.
+     *
+     * @param wasNearlySoldOut whether the conference was nearly sold out before the change
+     * @param conference the conference, after the change
+     */
+    private static void recordSeatsChanged(boolean wasNearlySoldOut, Conference conference) {
+        List<Event> events = new ArrayList<>(2);
+        events.add(Event.invalidateConference(conference.getWebsafeKey()));
+        if (wasNearlySoldOut != conference.isNearlySoldOut()) {
+            Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+            events.add(Event.updateNearlySoldOut(conferenceKey));
+        }
+        Outbox.record(events);
+    }
    
    /* **********************************************************************
     * PUBLIC METHODS
@@ -234,77 +299,39 @@ public class ConferenceApi {
         if (user == null) {
             throw new UnauthorizedException("Authorization required");
         }
-        
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
-
-            @Override
-            public WrappedBoolean run() {
-                try {
-                    // Get the Session key -- you can get it from websafeCongerenceKey
-                    // Will throw IllegalArgumentException if the key cannot be created
-                    Key<Session> sessionKey = Key.create(websafeSessionKey);
-                    Key<Conference> conferenceParentKey = sessionKey.getParent();
-
-                    // Get the user's profile entity
-                    Profile profile = getProfile(user);
-
-                    // User must be register to session's conference in order to
-                    // add session to Wishlist
-                    if (!profile.isRegisteredForConference(conferenceParentKey.getString())) {
-                        return new WrappedBoolean(false, String.format("Please register to the conference first"));
-                    }
-
-                    // Get the Session entity for the datastore
-                    Session Session = ofy().load().key(sessionKey).now();
-
-                    // 404 when there is no Session with the given SessionKey
-                    if (Session == null) {
-                        return new WrappedBoolean(false, String.format("No session found with Key: %s", websafeSessionKey));
-                    }
-
-                    // Has the user already added the session to the wishlist?
-                    if (profile.isSessionInWishlist(websafeSessionKey)) {
-                        return new WrappedBoolean(false, "Session already in Wishlist");
-                    }
-                    else {
-                        // All looks good, go ahead and add session to Wishlist
-
-                        // Add the websafeSessionKey to the profile's  sessionKeysWishlist property
-
-                        profile.addSessionKeyToWishlist(websafeSessionKey);
-
-                        // Save the Profile entity
-                        ofy().save().entity(profile).now();
 
-                        // We are booked!
-                        return new WrappedBoolean(true, "Session succesfully added to Wishlist");
+        // Get the Session key -- you can get it from websafeSessionKey
+        // null if the key cannot be created or is known to be missing
+        Key<Session> sessionKey = MissingKeyCache.parse(websafeSessionKey);
+        if (sessionKey == null) {
+            throw new NotFoundException(String.format("No session found with Key: %s", websafeSessionKey));
+        }
+        Key<Conference> conferenceParentKey = sessionKey.getParent();
 
-                    }
+        // Get the user's profile entity
+        Profile profile = ProfileContext.current().loadWithMemberships(user.getUserId());
 
-                }
-                catch (IllegalArgumentException e) {
-                    return new WrappedBoolean(false, "No session found with Key");
-                }
-                catch (Exception e) {
-                    return new WrappedBoolean(false, "Unknown exception");
-                }
-            }
+        // User must be register to session's conference in order to add
+        // session to Wishlist
+        if (profile == null || !profile.isRegisteredForConference(conferenceParentKey.getString())) {
+            throw new ConflictException("Please register to the conference first");
+        }
 
-        });
+        // 404 when there is no Session with the given SessionKey
+        if (ofy().load().key(sessionKey).now() == null) {
+            MissingKeyCache.markMissing(websafeSessionKey);
+            throw new NotFoundException(String.format("No session found with Key: %s", websafeSessionKey));
+        }
 
-        if (!result.getResult()) {
-            String failReason = result.getReason();
-            if (failReason.contains("No session found with Key")) {
-                throw new NotFoundException(result.getReason());
-            }
-            else if (failReason.equals("Session already in Wishlist")) {
-                throw new ConflictException("Session already in Wishlist");
-            }
-            else if (failReason.equals("Please register to the conference first")) {
-                throw new ConflictException("Please register to the conference first");
-            }
+        // Has the user already added the session to the wishlist?
+        if (WishlistService.contains(profile, websafeSessionKey)) {
+            throw new ConflictException("Session already in Wishlist");
         }
-        return result;
+
+        // All looks good, add the session to the Wishlist. This is a single put
+        // of a WishlistEntry, the Profile itself is not rewritten
+        WishlistService.add(profile, websafeSessionKey);
+        return new WrappedBoolean(true, "Session succesfully added to Wishlist");
     }
 
     /**
@@ -344,8 +371,8 @@ public class ConferenceApi {
         // Get the Conference Id from the Key
         final long conferenceId = conferenceKey.getId();
 
-        // Get the default queue
-        final Queue queue = QueueFactory.getDefaultQueue();
+        // Whether the transaction created the Profile
+        final AtomicBoolean profileCreated = new AtomicBoolean();
 
         // Start a transaction
         Conference conference = ofy().transact(new Work<Conference>() {
@@ -354,6 +381,7 @@ public class ConferenceApi {
             public Conference run() {
                 // Get the existing Profile entity for the current user if there
                 // is one. Otherwise create a new Profile entity with default values
+                profileCreated.set(ProfileContext.current().load(userId) == null);
                 Profile profile = ConferenceApi.getProfileFromUser(user);
 
                 // Create a new Conference Entity, specifying the user's
@@ -362,19 +390,22 @@ public class ConferenceApi {
 
                 // Save conference and Profile
                 ofy().save().entities(profile, conference).now();
+                ProfileContext.current().saved(profile);
 
-                // add send email to queue
-                queue.add(  ofy().getTransaction(), 
-                            TaskOptions.Builder
-                                .withUrl("/tasks/send_confirmation_email")
-                                .param("emailType", Constants.NEW_CONFERENCE)
-                                .param("email", profile.getMainEmail())
-                                .param("conferenceInfo", conference.toString())
-
-                );
+                // Record the notification e-mail, sent only if the
+                // conference is committed
+                Outbox.record(Event.notify(Constants.NEW_CONFERENCE, conferenceKey));
                 return conference;
             }
         });
+        MissingKeyCache.invalidate(conference.getWebsafeKey());
+
+        // Add a created Profile to the e-mail directory, once committed. The
+        // directory is its own entity group, so it is written outside of the
+        // transaction
+        if (profileCreated.get()) {
+            UserDirectory.record(user);
+        }
         return conference;
     }
     
@@ -429,34 +460,39 @@ public class ConferenceApi {
         // Get the session Id from the Key
         final long sessionId = sessionKey.getId();
 
-        // Get the default queue
-        final Queue queue = QueueFactory.getDefaultQueue();
-
         // Start a transaction
         Session session = ofy().transact(new Work<Session>() {
 
             @Override
             public Session run() {
-                // Get user profile to get email
-                Profile profile = ConferenceApi.getProfileFromUser(user);
-
                 // Create a new Session Entity, specifying the conference's
                 // entity as the parent of the session
                 Session session = new Session(sessionId, conferenceKey, sessionForm);
 
-                // Save sessions
-                ofy().save().entity(session).now();
-
-                // add send email to queue
-                queue.add(ofy().getTransaction(), TaskOptions.Builder.withUrl("/tasks/send_confirmation_email").param("emailType", Constants.NEW_SESSION)
-                                .param("email", profile.getMainEmail()).param("sessionInfo", session.toString())
+                // Count the speaker's sessions, before the session is saved
+                long speakerSessions = SpeakerCountService.increment(conferenceKey, session.getSpeaker());
 
-                );
+                // Save sessions, and add them to the speaker's index
+                ofy().save().entity(session).now();
+                SpeakerIndexService.index(session.getSpeaker(), Collections.singletonList(session));
+
+                // Record the invalidation of the session list, the e-mail, and
+                // the featured speaker check once the speaker has more than
+                // one session, all applied only if the session is committed
+                List<Event> events = new ArrayList<>(3);
+                events.add(Event.invalidateSessions(conferenceKey));
+                events.add(Event.notify(Constants.NEW_SESSION, sessionKey));
+                if (speakerSessions > 1) {
+                    events.add(Event.checkFeaturedSpeaker(conferenceKey, session.getSpeaker()));
+                }
+                Outbox.record(events);
                 return session;
             }
         });
 
-        this.checkForSpeakerAnnouncement(conferenceKey, conference, sessionForm.getSpeaker());
+        // Drop the session list at once too, so the caller sees the session
+        MissingKeyCache.invalidate(session.getWebsafeKey());
+        SessionListCache.invalidate(conferenceKey);
 
         return session;
     }
@@ -506,82 +542,50 @@ public class ConferenceApi {
             throw new UnauthorizedException("Authorization required");
         }
 
-        WrappedBoolean result = ofy().transact(new Work<WrappedBoolean>() {
-
-            @Override
-            public WrappedBoolean run() {
-                try {
-                    // Get the Session key
-                    // Will throw ForbiddenException if the key cannot be created
-                    Key<Session> sessionKey = Key.create(websafeSessionKey);
-
-                    // Get the session entity for the datastore
-                    Session session = ofy().load().key(sessionKey).now();
-
-                    // 404 when there is no Session with the given sessionKey
-                    if (session == null) {
-                        return new WrappedBoolean(false, String.format("No sesssion found with Key: %s", websafeSessionKey));
-                    }
-
-                    // Get the user's profile entity
-                    Profile profile = getProfile(user);
-
-                    // Has the user not already added session to wishlist?
-                    if (!profile.isSessionInWishlist(websafeSessionKey)) {
-                        return new WrappedBoolean(false, "Session is not on your wishlist");
-                    }
-                    else {
-                        // All looks good, go ahead and delete session from
-                        // wishlist
-
-                        profile.removeSessionKeysToWishlist(websafeSessionKey);
-
-                        // Save the Profile entity
-                        ofy().save().entities(profile).now();
+        // Get the Session key
+        // null if the key cannot be created or is known to be missing
+        Key<Session> sessionKey = MissingKeyCache.parse(websafeSessionKey);
+        if (sessionKey == null) {
+            throw new NotFoundException(String.format("No session found with Key: %s", websafeSessionKey));
+        }
 
-                        // Successfully removed session from wishlist!
-                        return new WrappedBoolean(true);
-                    }
-                }
-                catch (IllegalArgumentException e) {
-                    return new WrappedBoolean(false, "No session found with Key");
-                }
-                catch (Exception e) {
-                    return new WrappedBoolean(false, "Unknown exception");
-                }
-            }
+        // 404 when there is no Session with the given sessionKey
+        if (ofy().load().key(sessionKey).now() == null) {
+            MissingKeyCache.markMissing(websafeSessionKey);
+            throw new NotFoundException(String.format("No sesssion found with Key: %s", websafeSessionKey));
+        }
 
-        });
+        // Get the user's profile entity
+        Profile profile = ProfileContext.current().loadWithMemberships(user.getUserId());
 
-        if (!result.getResult()) {
-            String failReason = result.getReason();
-            if (failReason.contains("No sesssion found with Key")) {
-                throw new NotFoundException(result.getReason());
-            }
-            else if (failReason.equals("Session is not on your wishlist")) {
-                throw new ForbiddenException(result.getReason());
-            }
+        // Has the user not already added session to wishlist?
+        if (profile == null || !WishlistService.contains(profile, websafeSessionKey)) {
+            throw new ForbiddenException("Session is not on your wishlist");
         }
-        return result;
+
+        // All looks good, delete the session's WishlistEntry
+        WishlistService.remove(profile, websafeSessionKey);
+        return new WrappedBoolean(true);
     }
 
     /**
-     * Gets last announcement from Memcache whose Memcache key is Constants.MEMCACHE_ANNOUNCEMENTS_KEY
-     * @return a string representing the message
+     * Gets the active announcements, highest priority first, from Memcache
+     * whose Memcache key is Constants.MEMCACHE_ANNOUNCEMENTS_KEY, and from
+     * the datastore when Memcache misses.
+     * 
+     * @param version
+     *            the version of the announcement the client holds, if any
+     * @return the announcement, without message if the client already holds
+     *         its version, null if there is none
      */
     @ApiMethod(
         name = "getAnnouncement",
         path = "announcement",
         httpMethod = HttpMethod.GET
     )
-    public Announcement getAnnouncement() {
-        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
-        String announcementKey = Constants.MEMCACHE_ANNOUNCEMENTS_KEY;
-        Object message = memcacheService.get(announcementKey);
-        if (message != null) {
-            return new Announcement(message.toString());
-        }
-        return null;
+    public Announcement getAnnouncement(@Nullable @Named("version") final String version) {
+        Announcement announcement = AnnouncementStore.get();
+        return announcement == null ? null : announcement.unlessVersion(version);
     }
 
     /**
@@ -601,8 +605,8 @@ public class ConferenceApi {
     public Conference getConference(@Named("websafeConferenceKey") final String websafeConferenceKey) 
                     throws NotFoundException 
     {
-        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-        Conference conference = ofy().load().key(conferenceKey).now();
+        // Served from the in-process cache when possible
+        Conference conference = ConferenceCache.get(websafeConferenceKey);
         if (conference == null) {
             throw new NotFoundException(String.format("Not conference found with key: %s", websafeConferenceKey));
         }
@@ -615,14 +619,19 @@ public class ConferenceApi {
      *
      * @param websafeConferenceKey
      *            The conference key which the user wants its sessions
-     * @return a list of Sessions that belong to the conference.
+     * @return a list of Sessions that belong to the conference, empty if
+     *         there is no such conference.
      */
     @ApiMethod(name = "getConferenceSessions", path = "getConferenceSessions", httpMethod = HttpMethod.POST)
     public List<Session> getConferenceSessions(@Named("websafeConferenceKey") final String websafeConferenceKey) {
 
+        // Don't query for the sessions of a missing conference
+        Conference conference = ConferenceCache.get(websafeConferenceKey);
+        if (conference == null) {
+            return new ArrayList<>(0);
+        }
         Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-        Query<Session> q = ofy().load().type(Session.class).ancestor(conferenceKey);
-        return q.list();
+        return SessionListCache.get(conferenceKey);
 
     }
 
@@ -635,7 +644,8 @@ public class ConferenceApi {
      *            The conference key which the user wants its sessions
      * @param speaker
      *            The speaker
-     * @return a list of Session that belong to the conference with the specified speaker.
+     * @return a list of Session that belong to the conference with the specified speaker,
+     *         empty if the key cannot be parsed.
      */
     @ApiMethod(
         name = "getConferenceSessionsBySpeaker",
@@ -643,12 +653,11 @@ public class ConferenceApi {
         httpMethod = HttpMethod.POST
     )
     public List<Session> getConferenceSessionsBySpeaker(@Named("websafeConferenceKey") final String websafeConferenceKey, @Named("speaker") final String speaker) {
-        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-
-        Query<Session> q = ofy().load().type(Session.class)
-                                        .ancestor(conferenceKey)
-                                        .filter("speaker =", speaker);
-        return q.list();
+        Key<Conference> conferenceKey = MissingKeyCache.parse(websafeConferenceKey);
+        if (conferenceKey == null) {
+            return new ArrayList<>(0);
+        }
+        return SessionListCache.getBySpeaker(conferenceKey, speaker);
     }
 
     /**
@@ -661,7 +670,7 @@ public class ConferenceApi {
      * @param sessionType
      *            The session type
      * @return a list of Session that belong to the conference with the
-     *         specified session type.
+     *         specified session type, empty if the key cannot be parsed.
      */
     @ApiMethod(name = "getConferenceSessionsByType", path = "getConferenceSessionsByType", httpMethod = HttpMethod.POST)
     public List<Session> getConferenceSessionsByType(
@@ -669,11 +678,28 @@ public class ConferenceApi {
                             @Named("sessionType") final String sessionType
     )
     {
-        Key<Conference> conferenceKey = Key.create(websafeConferenceKey);
-        Query<Session> q = ofy().load().type(Session.class)
-                                        .ancestor(conferenceKey)
-                                        .filter("type =", sessionType);
-        return q.list();
+        Key<Conference> conferenceKey = MissingKeyCache.parse(websafeConferenceKey);
+        if (conferenceKey == null) {
+            return new ArrayList<>(0);
+        }
+        return SessionListCache.getByType(conferenceKey, sessionType);
+    }
+
+    /**
+     * Returns the sessions of a speaker across all the conferences, in start
+     * order, from the speaker's SpeakerIndex.
+     *
+     * @param speaker
+     *            The speaker, in any case
+     * @return a list of Session given by the speaker.
+     */
+    @ApiMethod(
+        name = "getSessionsBySpeaker",
+        path = "sessions/speaker",
+        httpMethod = HttpMethod.GET
+    )
+    public List<Session> getSessionsBySpeaker(@Named("speaker") final String speaker) {
+        return SpeakerIndexService.getSessions(speaker);
     }
 
     /**
@@ -759,9 +785,7 @@ public class ConferenceApi {
             throw new UnauthorizedException("Authorization required");
         }
 
-        String userId = user.getUserId();
-        Key<Profile> key = Key.create(Profile.class, userId);
-        Profile profile = ofy().load().key(key).now();
+        Profile profile = ProfileContext.current().loadWithMemberships(user.getUserId());
 
         if (profile == null) {
             throw new NotFoundException("Profile doesn't exist");
@@ -782,11 +806,60 @@ public class ConferenceApi {
     }
 
     /**
-     * Gets an announcement announcing all speakers talking on more than one
-     * session
+     * Returns what the home page shows on load: the announcements, the latest
+     * featured speaker and, for a signed-in user, the Profile and the
+     * conferences to attend. The announcements are read with one memcache
+     * getAll (when not already held by this instance) and the Profile with its
+     * memberships in one batch get. The conferences to attend are only known
+     * from the memberships, so they are served by ConferenceCache: from this
+     * instance, or else with one batch get of the ones to reload.
+     *
+     * The conference listing is not included, the page keeps querying it with
+     * queryConferences as it depends on the user's filters; the conferences
+     * to attend stand in for it on the dashboard.
+     *
+     * @param user
+     *            the logged-in user, may be null
+     * @return the dashboard.
+     */
+    @ApiMethod(
+        name = "getDashboard",
+        path = "dashboard",
+        httpMethod = HttpMethod.GET
+    )
+    public Dashboard getDashboard(final User user) {
+        Map<String, Callable<String>> loaders = new HashMap<>();
+        loaders.put(Constants.MEMCACHE_ANNOUNCEMENTS_KEY, AnnouncementStore.LOADER);
+        loaders.put(Constants.MEMCACHE_FEATURED_SPEAKER_KEY, FeaturedSpeakerService.LOADER);
+        Map<String, Announcement> announcements = AnnouncementCache.getAll(loaders);
+
+        Profile profile = null;
+        Collection<Conference> conferencesToAttend = new ArrayList<>(0);
+        if (user != null) {
+            // Fetch the Profile and its memberships together
+            profile = ProfileContext.current().loadWithMemberships(user.getUserId());
+        }
+        if (profile != null) {
+            conferencesToAttend = ConferenceCache.getAll(profile.getConferenceKeysToAttend()).values();
+        }
+        return new Dashboard(announcements.get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY),
+                        announcements.get(Constants.MEMCACHE_FEATURED_SPEAKER_KEY), profile, conferencesToAttend);
+    }
+
+    /**
+     * Gets an announcement announcing a speaker talking on more than one
+     * session. With a conference key this is the featured speaker of that
+     * conference, read from its FeaturedSpeaker (memcache first, datastore on
+     * a miss). Without one it is the latest featured speaker of any
+     * conference.
      * 
+     * @param websafeConferenceKey
+     *            the conference key, if any
+     * @param version
+     *            the version of the announcement the client holds, if any
      * @return String with announcing all speakers talking on more than one
-     *         session, null if there are no featured speaker
+     *         session, without message if the client already holds its
+     *         version, null if there are no featured speaker
      * 
      */
     @ApiMethod(
@@ -794,15 +867,61 @@ public class ConferenceApi {
         path = "getFeaturedSpeaker", 
         httpMethod = HttpMethod.GET
     )
-    public Announcement getFeaturedSpeaker() {
+    public Announcement getFeaturedSpeaker(
+                            @Nullable @Named("websafeConferenceKey") final String websafeConferenceKey,
+                            @Nullable @Named("version") final String version
+    )
+                    throws NotFoundException
+    {
+        Announcement announcement;
+        if (websafeConferenceKey == null) {
+            announcement = AnnouncementCache.get(Constants.MEMCACHE_FEATURED_SPEAKER_KEY, FeaturedSpeakerService.LOADER);
+        }
+        else {
+            Key<Conference> conferenceKey = MissingKeyCache.parse(websafeConferenceKey);
+            if (conferenceKey == null) {
+                throw new NotFoundException(String.format("Not conference found with key: %s", websafeConferenceKey));
+            }
+            FeaturedSpeaker featuredSpeaker = ofy().load().key(FeaturedSpeaker.keyOf(conferenceKey)).now();
+            if (featuredSpeaker == null) {
+                return null;
+            }
+            String message = featuredSpeaker.getMessage();
+            announcement = new Announcement(message, AnnouncementCache.version(message));
+        }
+        return announcement == null ? null : announcement.unlessVersion(version);
+    }
 
-        MemcacheService memcacheService = MemcacheServiceFactory.getMemcacheService();
-        String announcementKey = Constants.MEMCACHE_FEATURED_SPEAKER_KEY;
-        Object message = memcacheService.get(announcementKey);
-        if (message != null) {
-            return new Announcement(message.toString());
+    /**
+     * Finds a user by e-mail address, for invite-by-email. The address is
+     * resolved with one get in the user directory, served by memcache.
+     *
+     * @param user
+     *            the logged-in user
+     * @param email
+     *            the e-mail address, in any case
+     * @return the user with that e-mail address.
+     * @throws UnauthorizedException
+     *             when the user is not signed in.
+     * @throws NotFoundException
+     *             when no user with that e-mail address has a Profile.
+     */
+    @ApiMethod(
+        name = "findUserByEmail",
+        path = "user",
+        httpMethod = HttpMethod.GET
+    )
+    public UserByEmail findUserByEmail(final User user, @Named("email") final String email)
+                    throws UnauthorizedException, NotFoundException
+    {
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
         }
-        return null;
+        String userId = UserDirectory.findUserId(email);
+        if (userId == null) {
+            throw new NotFoundException(String.format("No user found with e-mail: %s", email));
+        }
+        return new UserByEmail(email, userId);
     }
 
     /**
@@ -827,11 +946,15 @@ public class ConferenceApi {
             throw new UnauthorizedException("Authorization required");
         }
 
-        // load the Profile Entity
-        String userId = user.getUserId();
-        Key<Profile> key = Key.create(Profile.class, userId);
-        Profile profile = ofy().load().key(key).now(); // load the Profile
-                                                       // entity
+        // load the Profile Entity with its key lists, at most once per
+        // request
+        Profile profile = ProfileContext.current().loadWithMemberships(user.getUserId());
+
+        // The profile page lists the wishlist, which takes a keys-only
+        // ancestor query: resolve it here rather than on serialization
+        if (profile != null) {
+            profile.setSessionsInWhishlist(WishlistService.getWebsafeSessionKeys(profile));
+        }
         return profile;
     }
     
@@ -944,16 +1067,14 @@ public class ConferenceApi {
             throw new UnauthorizedException("Authorization required");
         }
 
-        String userId = user.getUserId();
-        Key<Profile> key = Key.create(Profile.class, userId);
-        Profile profile = ofy().load().key(key).now();
+        Profile profile = ProfileContext.current().loadWithMemberships(user.getUserId());
 
         if (profile == null) {
             throw new NotFoundException("Profile doesn't exist");
         }
 
-        // Get the value of the Profile's keyStringsInWhishlist property
-        List<String> keyStringsInWhishlist = profile.getSessionsInWhishlist();
+        // Get the websafe keys of the sessions in the Profile's wishlist
+        List<String> keyStringsInWhishlist = WishlistService.getWebsafeSessionKeys(profile);
 
         // Iterate over keyStringsInWhishlist, end return a Collection of the
         // Session entities that the user has added to wishlist
@@ -1043,7 +1164,7 @@ public class ConferenceApi {
                     }
 
                     // Get the user's profile entity
-                    Profile profile = getProfile(user);
+                    Profile profile = ProfileContext.current().loadWithMemberships(user.getUserId());
 
                     // Has the user already registered to attend this conference?
                     if (profile.getConferenceKeysToAttend().contains(websafeConferenceKey)) {
@@ -1061,10 +1182,15 @@ public class ConferenceApi {
 
                         // Decrease the conference's seat's available
                         // You can use the bookSeats() method on Conference
+                        boolean wasNearlySoldOut = conference.isNearlySoldOut();
                         conference.bookSeats(1);
 
-                        // Save the Conference and Profile entities
-                        ofy().save().entities(conference, profile).now();
+                        // Save the Conference and the Profile's key lists
+                        List<Object> entities = profile.membershipsToSave();
+                        entities.add(conference);
+                        ofy().save().entities(entities).now();
+                        recordSeatsChanged(wasNearlySoldOut, conference);
+                        ProfileContext.current().saved(profile);
 
                         // We are booked!
                         return new WrappedBoolean(true, "Registration successful");
@@ -1079,7 +1205,11 @@ public class ConferenceApi {
 
         });
 
-        if (!result.getResult()) {
+        if (result.getResult()) {
+            // The seats changed, drop the cached conference everywhere
+            ConferenceCache.invalidate(websafeConferenceKey);
+        }
+        else {
             String failReason = result.getReason();
             if (failReason.contains("No conference found with Key")) {
                 throw new NotFoundException(result.getReason());
@@ -1129,9 +1259,12 @@ public class ConferenceApi {
         String displayName = profileForm.getDisplayName();
         TeeShirtSize teeShirtSize = profileForm.getTeeShirtSize();
 
+        // Keep the e-mail directory up to date for invite-by-email lookups
+        UserDirectory.record(user);
+
         // Get the Profile from the datastore if it exists
-        // otherwise create a new one
-        Profile profile = ofy().load().key(Key.create(Profile.class, userId)).now();
+        // otherwise create a new one. The key lists are part of the response
+        Profile profile = ProfileContext.current().loadWithMemberships(userId);
 
         if (profile == null) {
             // Populate the displayName and teeShirtSize with default values
@@ -1145,14 +1278,20 @@ public class ConferenceApi {
             // Now create a new Profile entity
             profile = new Profile(userId, displayName, mainEmail, teeShirtSize);
         }
-        else {
-            // The Profile entity already exists
-            // Update the Profile entity
-            profile.update(displayName, teeShirtSize);
+        else if (profile.hasLegacyLists()) {
+            // Move the inline key lists of a legacy Profile to its memberships
+            return saveLegacyProfile(userId, displayName, teeShirtSize);
+        }
+        else if (!profile.update(displayName, teeShirtSize)) {
+            // The Profile entity already exists and nothing changed, so there
+            // is nothing to write
+            return profile;
         }
 
-        // Save the entity in the datastore
+        // Save the entity in the datastore. Only the core fields are written,
+        // the key lists live in the Profile's ProfileMemberships
         ofy().save().entity(profile).now();
+        ProfileContext.current().saved(profile);
 
         // Return the profile
         return profile;
@@ -1203,7 +1342,7 @@ public class ConferenceApi {
                     }
 
                     // Get the user's profile entity
-                    Profile profile = getProfile(user);
+                    Profile profile = ProfileContext.current().loadWithMemberships(user.getUserId());
 
                     // Has the user already registered to attend this
                     // conference?
@@ -1219,10 +1358,15 @@ public class ConferenceApi {
 
                         // Decrease the conference's seat's available
                         // You can use the bookSeats() method on Conference
+                        boolean wasNearlySoldOut = conference.isNearlySoldOut();
                         conference.giveBackSeats(1);
 
-                        // Save the Conference and Profile entities
-                        ofy().save().entities(conference, profile).now();
+                        // Save the Conference and the Profile's key lists
+                        List<Object> entities = profile.membershipsToSave();
+                        entities.add(conference);
+                        ofy().save().entities(entities).now();
+                        recordSeatsChanged(wasNearlySoldOut, conference);
+                        ProfileContext.current().saved(profile);
 
                         // We are booked!
                         return new WrappedBoolean(true);
@@ -1237,7 +1381,11 @@ public class ConferenceApi {
 
         });
 
-        if (!result.getResult()) {
+        if (result.getResult()) {
+            // The seats changed, drop the cached conference everywhere
+            ConferenceCache.invalidate(websafeConferenceKey);
+        }
+        else {
             String failReason = result.getReason();
             if (failReason.contains("No conference found with Key")) {
                 throw new NotFoundException(result.getReason());
@@ -1248,4 +1396,115 @@ public class ConferenceApi {
         }
         return result;
     }
+
+    /**
+     * Adds and removes several sessions from the user's wishlist in one call.
+     * All sessions are validated with one batch get, registration is checked
+     * once per conference, and all changes are applied in one batch write.
+     * Sessions that fail validation are skipped and reported, they don't fail
+     * the whole batch.
+     *
+     * @param user
+     *            the logged-in user
+     * @param wishlistForm
+     *            the sessions to add and to remove
+     * @return the result of each session, adds first.
+     * @throws UnauthorizedException
+     *             when the user is not signed in.
+     */
+    @ApiMethod(
+        name = "updateWishlist",
+        path = "wishlist",
+        httpMethod = HttpMethod.POST
+    )
+    public List<WishlistItemResult> updateWishlist(final User user, final WishlistForm wishlistForm)
+                    throws UnauthorizedException
+    {
+        // if not signed in, throw a 401 error
+        if (user == null) {
+            throw new UnauthorizedException("Authorization required");
+        }
+
+        List<String> keysToAdd = wishlistForm.getSessionKeysToAdd();
+        List<String> keysToRemove = wishlistForm.getSessionKeysToRemove();
+
+        // Parse every key, null for the ones that cannot be created or are
+        // known to be missing
+        Map<String, Key<Session>> sessionKeys = new LinkedHashMap<>();
+        List<String> allKeys = new ArrayList<>(keysToAdd);
+        allKeys.addAll(keysToRemove);
+        for (String websafeSessionKey : allKeys) {
+            sessionKeys.put(websafeSessionKey, MissingKeyCache.<Session> parse(websafeSessionKey));
+        }
+
+        // One batch get for all the sessions, one for the wishlist entries
+        List<Key<Session>> validKeys = new ArrayList<>(sessionKeys.size());
+        for (Key<Session> sessionKey : sessionKeys.values()) {
+            if (sessionKey != null) {
+                validKeys.add(sessionKey);
+            }
+        }
+        Map<Key<Session>, Session> sessions = ofy().load().keys(validKeys);
+        for (Key<Session> sessionKey : validKeys) {
+            if (!sessions.containsKey(sessionKey)) {
+                MissingKeyCache.markMissing(sessionKey.getString());
+            }
+        }
+        Profile profile = ProfileContext.current().loadWithMemberships(user.getUserId());
+        Set<String> inWishlist = profile == null ? new HashSet<String>() : WishlistService.containing(profile, sessionKeys.keySet());
+
+        List<WishlistItemResult> results = new ArrayList<>(allKeys.size());
+        List<String> added = new ArrayList<>(keysToAdd.size());
+        List<String> removed = new ArrayList<>(keysToRemove.size());
+        Map<Key<Conference>, Boolean> registrations = new HashMap<>();
+        for (String websafeSessionKey : keysToAdd) {
+            Key<Session> sessionKey = sessionKeys.get(websafeSessionKey);
+            if (sessionKey == null || !sessions.containsKey(sessionKey)) {
+                results.add(new WishlistItemResult(websafeSessionKey, false, "No session found with Key"));
+                continue;
+            }
+            // Check the registration once per conference
+            Key<Conference> conferenceKey = sessionKey.getParent();
+            Boolean registered = registrations.get(conferenceKey);
+            if (registered == null) {
+                registered = profile != null && profile.isRegisteredForConference(conferenceKey.getString());
+                registrations.put(conferenceKey, registered);
+            }
+            if (!registered) {
+                results.add(new WishlistItemResult(websafeSessionKey, false, "Please register to the conference first"));
+            }
+            else if (keysToRemove.contains(websafeSessionKey)) {
+                results.add(new WishlistItemResult(websafeSessionKey, false, "Session both added and removed"));
+            }
+            else if (inWishlist.contains(websafeSessionKey) || added.contains(websafeSessionKey)) {
+                results.add(new WishlistItemResult(websafeSessionKey, false, "Session already in Wishlist"));
+            }
+            else {
+                added.add(websafeSessionKey);
+                results.add(new WishlistItemResult(websafeSessionKey, true, "Session succesfully added to Wishlist"));
+            }
+        }
+        for (String websafeSessionKey : keysToRemove) {
+            Key<Session> sessionKey = sessionKeys.get(websafeSessionKey);
+            if (sessionKey == null || !sessions.containsKey(sessionKey)) {
+                results.add(new WishlistItemResult(websafeSessionKey, false, "No session found with Key"));
+            }
+            else if (keysToAdd.contains(websafeSessionKey)) {
+                results.add(new WishlistItemResult(websafeSessionKey, false, "Session both added and removed"));
+            }
+            else if (!inWishlist.contains(websafeSessionKey) || removed.contains(websafeSessionKey)) {
+                results.add(new WishlistItemResult(websafeSessionKey, false, "Session is not on your wishlist"));
+            }
+            else {
+                removed.add(websafeSessionKey);
+                results.add(new WishlistItemResult(websafeSessionKey, true, ""));
+            }
+        }
+
+        // Apply everything at once
+        if (!added.isEmpty() || !removed.isEmpty()) {
+            WishlistService.apply(profile, added, removed);
+        }
+        return results;
+    }
 }
@@ -63,6 +63,14 @@ public class ProfileTest {
         assertEquals(newTeeShirtSize, profile.getTeeShirtSize());
     }
 
+    @Test
+    public void testUpdateUnchanged() throws Exception {
+        assertFalse(profile.update(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        assertFalse(profile.update(null, null));
+        assertTrue(profile.update(null, TeeShirtSize.XL));
+        assertEquals(TeeShirtSize.XL, profile.getTeeShirtSize());
+    }
+
     /*
     @Test
     public void testListValues() throws Exception {
@@ -0,0 +1,83 @@
+package com.google.devrel.training.conference.service;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static com.google.devrel.training.conference.service.OfyService.factory;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.googlecode.objectify.Key;
+
+/**
+ * Measures the latency of the getConference read paths against the local
+ * service stubs. Not a unit test; run its main method with the test classpath
+ * after mvn test-compile.
+ *
+ * The stubs are in-process, so the numbers understate real memcache RPC
+ * latency; the relative cost of the paths is what matters.
+ */
+public class ConferenceCacheBenchmark {
+
+    private static final int WARMUP     = 20000;
+
+    private static final int ITERATIONS = 200000;
+
+    private interface Read {
+        Object run(String websafeConferenceKey);
+    }
+
+    private static void measure(String name, String websafeConferenceKey, Read read) {
+        for (int i = 0; i < WARMUP; i++) {
+            read.run(websafeConferenceKey);
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < ITERATIONS; i++) {
+            read.run(websafeConferenceKey);
+        }
+        long elapsed = System.nanoTime() - start;
+        System.out.println(String.format("%-28s %10.1f ns/op", name, (double) elapsed / ITERATIONS));
+    }
+
+    public static void main(String[] args) {
+        LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(),
+                        new LocalMemcacheServiceTestConfig());
+        helper.setUp();
+        try {
+            Key<Conference> conferenceKey = factory().allocateId(Key.create(Profile.class, "organizer"), Conference.class);
+            Conference conference = new Conference(conferenceKey.getId(), "organizer",
+                            new ConferenceForm("Benchmark", "", null, null, null, null, 100));
+            ofy().save().entity(conference).now();
+            final String websafeConferenceKey = conference.getWebsafeKey();
+
+            measure("objectify (memcache) load", websafeConferenceKey, new Read() {
+
+                @Override
+                public Object run(String websafeConferenceKey) {
+                    ofy().clear();
+                    return ofy().load().key(Key.<Conference> create(websafeConferenceKey)).now();
+                }
+            });
+            measure("local hit, stamp checked", websafeConferenceKey, new Read() {
+
+                @Override
+                public Object run(String websafeConferenceKey) {
+                    ConferenceCache.expireValidation(websafeConferenceKey);
+                    return ConferenceCache.get(websafeConferenceKey);
+                }
+            });
+            measure("local hit", websafeConferenceKey, new Read() {
+
+                @Override
+                public Object run(String websafeConferenceKey) {
+                    return ConferenceCache.get(websafeConferenceKey);
+                }
+            });
+        }
+        finally {
+            helper.tearDown();
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static com.google.devrel.training.conference.service.OfyService.factory;
+
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalMemcacheServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.EmailService;
+import com.google.devrel.training.conference.service.InMemoryMailTransport;
+import com.googlecode.objectify.Key;
+
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Measures the throughput of SendConfirmationEmailServlet: enqueues
+ * NOTIFICATIONS notifications for ORGANIZERS organizers, runs the servlet
+ * until they are all sent to an InMemoryMailTransport, and reports messages
+ * per second and bytes allocated per message. Not a unit test; run its main
+ * method with the test classpath after mvn test-compile, optionally with the
+ * number of notifications as argument.
+ *
+ * The stubs are in-process, so the numbers leave out the Mail API and task
+ * queue RPCs; they measure the worker's own cost.
+ */
+public class SendConfirmationEmailBenchmark {
+
+    private static final int NOTIFICATIONS = 5000;
+
+    private static final int ORGANIZERS    = 500;
+
+    /**
+     * Implements any servlet interface with methods doing nothing.
+     */
+    private static <T> T stub(Class<T> type) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, new InvocationHandler() {
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) {
+                return null;
+            }
+        }));
+    }
+
+    private static long allocatedBytes() {
+        return ((com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean())
+                        .getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+    public static void main(String[] args) throws Exception {
+        int notifications = args.length > 0 ? Integer.parseInt(args[0]) : NOTIFICATIONS;
+        LocalServiceTestHelper helper = new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig(),
+                        new LocalMemcacheServiceTestConfig(),
+                        new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml")
+                                        .setDisableAutoTaskExecution(true));
+        helper.setUp();
+        try {
+            InMemoryMailTransport transport = new InMemoryMailTransport();
+            EmailService.setTransport(transport);
+
+            List<Key<Conference>> conferenceKeys = new ArrayList<>(ORGANIZERS);
+            for (int i = 0; i < ORGANIZERS; i++) {
+                String userId = "organizer" + i;
+                Profile profile = new Profile(userId, "Organizer " + i, userId + "@example.com", TeeShirtSize.NOT_SPECIFIED);
+                Key<Conference> conferenceKey = factory().allocateId(Key.create(Profile.class, userId), Conference.class);
+                ofy().save().entities(profile, new Conference(conferenceKey.getId(), userId,
+                                new ConferenceForm("Benchmark " + i, "", null, null, null, null, 100))).now();
+                conferenceKeys.add(conferenceKey);
+            }
+            // Each organizer's notifications come in a burst, as when
+            // sessions are created in bulk
+            for (int i = 0; i < notifications; i++) {
+                EmailService.enqueue(Constants.NEW_CONFERENCE, conferenceKeys.get((int) ((long) i * ORGANIZERS / notifications)));
+            }
+            ofy().clear();
+
+            SendConfirmationEmailServlet servlet = new SendConfirmationEmailServlet();
+            HttpServletRequest request = stub(HttpServletRequest.class);
+            HttpServletResponse response = stub(HttpServletResponse.class);
+            long allocated = allocatedBytes();
+            long start = System.nanoTime();
+            // Runs the servlet again while it finds notifications, as its
+            // own kick would
+            int runs = 0;
+            long before;
+            do {
+                before = transport.getSent();
+                servlet.doPost(request, response);
+                runs++;
+            }
+            while (transport.getSent() > before);
+            long elapsed = System.nanoTime() - start;
+            allocated = allocatedBytes() - allocated;
+            long sent = transport.getSent();
+
+            System.out.println(String.format("%d notifications, %d messages, %d servlet runs", notifications, sent, runs));
+            System.out.println(String.format("%10.1f notifications/s", notifications * 1e9 / elapsed));
+            System.out.println(String.format("%10.1f messages/s", sent * 1e9 / elapsed));
+            System.out.println(String.format("%10.1f bytes allocated/message", (double) allocated / sent));
+        }
+        finally {
+            helper.tearDown();
+        }
+    }
+}
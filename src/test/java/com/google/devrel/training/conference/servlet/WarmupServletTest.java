@@ -0,0 +1,106 @@
+package com.google.devrel.training.conference.servlet;
+
+import static com.google.devrel.training.conference.service.OfyService.ofy;
+import static org.junit.Assert.*;
+
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.users.User;
+import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
+import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.form.ConferenceForm;
+import com.google.devrel.training.conference.service.AnnouncementCache;
+import com.google.devrel.training.conference.service.CacheStats;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.google.devrel.training.conference.service.MissingKeyCache;
+import com.google.devrel.training.conference.service.ProfileContext;
+import com.google.devrel.training.conference.service.SessionListCache;
+import com.google.devrel.training.conference.spi.ConferenceApi;
+import com.googlecode.objectify.Key;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.Date;
+import java.util.List;
+
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Tests for WarmupServlet.
+ */
+public class WarmupServletTest {
+
+    private final LocalServiceTestHelper helper =
+            new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml")
+                            .setDisableAutoTaskExecution(true));
+
+    @Before
+    public void setUp() throws Exception {
+        helper.setUp();
+        ProfileContext.begin();
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        ProfileContext.end();
+        ConferenceCache.clearLocal();
+        AnnouncementCache.clearLocal();
+        MissingKeyCache.clearLocal();
+        CacheStats.clear();
+        ofy().clear();
+        helper.tearDown();
+    }
+
+    /**
+     * Returns a response writing its body to the given writer.
+     */
+    private static HttpServletResponse response(final StringWriter body) {
+        return (HttpServletResponse) Proxy.newProxyInstance(HttpServletResponse.class.getClassLoader(),
+                new Class<?>[] { HttpServletResponse.class }, new InvocationHandler() {
+
+                    @Override
+                    public Object invoke(Object proxy, Method method, Object[] args) {
+                        return method.getName().equals("getWriter") ? new PrintWriter(body, true) : null;
+                    }
+                });
+    }
+
+    @Test
+    public void testWarmupReadsOpenConferences() throws Exception {
+        ConferenceApi conferenceApi = new ConferenceApi();
+        User user = new User("example@gmail.com", "gmail.com", "123456789");
+        Date date = new Date();
+        Conference open = conferenceApi.createConference(user,
+                new ConferenceForm("Open", null, null, "Paris", date, date, 10));
+        Conference soldOut = conferenceApi.createConference(user,
+                new ConferenceForm("Sold out", null, null, "Paris", date, date, 0));
+        // Apply both commits, for the global query
+        DatastoreServiceFactory.getDatastoreService().get(Key.create(open.getWebsafeKey()).getRaw());
+        DatastoreServiceFactory.getDatastoreService().get(Key.create(soldOut.getWebsafeKey()).getRaw());
+        ConferenceCache.clearLocal();
+        ofy().clear();
+
+        StringWriter body = new StringWriter();
+        new WarmupServlet().doGet(null, response(body));
+        assertTrue(body.toString(), body.toString().contains(" 1 conferences "));
+        assertTrue(body.toString(), body.toString().contains(" 1 reads "));
+
+        // The first user request finds the open conference and its sessions
+        // cached
+        CacheStats.clear();
+        ConferenceCache.get(open.getWebsafeKey());
+        SessionListCache.get(Key.<Conference> create(open.getWebsafeKey()));
+        List<String> report = CacheStats.report();
+        assertTrue(report.toString(), report.contains("cache family=conference.local hits=1 misses=0 sets=0 evictions=0 bytes=0 hitRate=1.000"));
+        assertTrue(report.toString(), report.contains("cache family=sessions.memcache hits=1 misses=0 sets=0 evictions=0 bytes=0 hitRate=1.000"));
+    }
+}
@@ -3,19 +3,51 @@ package com.google.devrel.training.conference.spi;
 import static com.google.devrel.training.conference.service.OfyService.ofy;
 import static org.junit.Assert.*;
 
+import com.google.api.server.spi.response.NotFoundException;
 import com.google.api.server.spi.response.UnauthorizedException;
+import com.google.appengine.api.datastore.DatastoreService;
+import com.google.appengine.api.datastore.DatastoreServiceFactory;
+import com.google.appengine.api.datastore.Entity;
+import com.google.appengine.api.memcache.MemcacheServiceFactory;
 import com.google.appengine.api.users.User;
 import com.google.appengine.tools.development.testing.LocalDatastoreServiceTestConfig;
+import com.google.appengine.tools.development.testing.LocalTaskQueueTestConfig;
 import com.google.appengine.tools.development.testing.LocalServiceTestHelper;
+import com.google.devrel.training.conference.spi.ConferenceApi.WishlistItemResult;
+import com.google.devrel.training.conference.Constants;
+import com.google.devrel.training.conference.domain.Announcement;
 import com.google.devrel.training.conference.domain.Conference;
+import com.google.devrel.training.conference.domain.Dashboard;
+import com.google.devrel.training.conference.domain.FeaturedSpeaker;
+import com.google.devrel.training.conference.domain.MapperJob;
 import com.google.devrel.training.conference.domain.Session;
 // import com.google.devrel.training.conference.domain.Conference;
 import com.google.devrel.training.conference.domain.Profile;
+import com.google.devrel.training.conference.domain.ProfileMemberships;
+import com.google.devrel.training.conference.domain.WishlistEntry;
 import com.google.devrel.training.conference.form.ConferenceForm;
 // import com.google.devrel.training.conference.form.ConferenceForm;
 import com.google.devrel.training.conference.form.ProfileForm;
 import com.google.devrel.training.conference.form.SessionForm;
+import com.google.devrel.training.conference.form.WishlistForm;
 import com.google.devrel.training.conference.form.ProfileForm.TeeShirtSize;
+import com.google.devrel.training.conference.service.AnnouncementCache;
+import com.google.devrel.training.conference.service.AnnouncementStore;
+import com.google.devrel.training.conference.service.CacheStats;
+import com.google.devrel.training.conference.service.ConferenceCache;
+import com.google.devrel.training.conference.service.EmailService;
+import com.google.devrel.training.conference.service.EmailService.BatchReport;
+import com.google.devrel.training.conference.service.InMemoryMailTransport;
+import com.google.devrel.training.conference.service.FeaturedSpeakerService;
+import com.google.devrel.training.conference.service.MapperService;
+import com.google.devrel.training.conference.service.MissingKeyCache;
+import com.google.devrel.training.conference.service.NearlySoldOutService;
+import com.google.devrel.training.conference.service.Outbox;
+import com.google.devrel.training.conference.service.SessionListCache;
+import com.google.devrel.training.conference.service.SpeakerCountService;
+import com.google.devrel.training.conference.service.ProfileContext;
+import com.google.devrel.training.conference.service.UserDirectory;
+import com.google.devrel.training.conference.service.WishlistService;
 import com.googlecode.objectify.Key;
 
 import org.junit.After;
@@ -25,9 +57,18 @@ import org.junit.Test;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
 
+import javax.mail.Address;
+import javax.mail.Message;
+import javax.mail.MessagingException;
+import javax.mail.SendFailedException;
+import javax.mail.internet.InternetAddress;
+
 /**
  * Tests for ConferenceApi API methods.
  */
@@ -71,17 +112,25 @@ public class ConferenceApiTest {
 
     private final LocalServiceTestHelper helper =
             new LocalServiceTestHelper(new LocalDatastoreServiceTestConfig()
-                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100));
+                    .setDefaultHighRepJobPolicyUnappliedJobPercentage(100),
+                    new LocalTaskQueueTestConfig().setQueueXmlPath("src/main/webapp/WEB-INF/queue.xml")
+                            .setDisableAutoTaskExecution(true));
 
     @Before
     public void setUp() throws Exception {
         helper.setUp();
+        ProfileContext.begin();
         user = new User(EMAIL, "gmail.com", USER_ID);
         conferenceApi = new ConferenceApi();
     }
 
     @After
     public void tearDown() throws Exception {
+        ProfileContext.end();
+        ConferenceCache.clearLocal();
+        AnnouncementCache.clearLocal();
+        MissingKeyCache.clearLocal();
+        CacheStats.clear();
         ofy().clear();
         helper.tearDown();
     }
@@ -135,6 +184,15 @@ public class ConferenceApiTest {
         assertEquals(displayName, profile.getDisplayName());
     }
 
+    @Test
+    public void testSaveProfileRecordsUserDirectory() throws Exception {
+        assertNull(UserDirectory.findUserId(EMAIL));
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        assertEquals(USER_ID, UserDirectory.findUserId(EMAIL));
+        assertEquals(USER_ID, UserDirectory.findUserId(EMAIL.toUpperCase()));
+        assertEquals(USER_ID, conferenceApi.findUserByEmail(user, EMAIL).getUserId());
+    }
+
     @Test
     public void testGetProfile() throws Exception {
         conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
@@ -265,6 +323,236 @@ public class ConferenceApiTest {
         assertEquals(MONTH, conference.getMonth());
     }
     
+    @Test
+    public void testGetConferenceCached() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date startDate = dateFormat.parse("03/25/2014");
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, startDate, startDate, CAP);
+        String websafeKey = conferenceApi.createConference(user, conferenceForm).getWebsafeKey();
+
+        // The second read is served from the in-process cache, as a copy that
+        // changes to the first one do not reach
+        Conference conference = conferenceApi.getConference(websafeKey);
+        CacheStats.clear();
+        conference.bookSeats(1);
+        Conference cached = conferenceApi.getConference(websafeKey);
+        assertNotSame(conference, cached);
+        assertEquals(CAP, cached.getSeatsAvailable());
+        assertTrue(CacheStats.report().toString(), CacheStats.report().contains(
+                "cache family=conference.local hits=1 misses=0 sets=0 evictions=0 bytes=0 hitRate=1.000"));
+
+        // Malformed keys are skipped by getAll() as they are by get()
+        assertEquals(Arrays.asList(websafeKey),
+                new ArrayList<>(ConferenceCache.getAll(Arrays.asList("junk", websafeKey)).keySet()));
+
+        // Registration invalidates it
+        conferenceApi.registerForConference(user, websafeKey);
+        assertEquals(CAP - 1, conferenceApi.getConference(websafeKey).getSeatsAvailable());
+    }
+
+    @Test
+    public void testMissingConferenceKeysAreRemembered() throws Exception {
+        assertTrue(conferenceApi.getConferenceSessions("junk").isEmpty());
+        String missingKey = Key.create(Key.create(Profile.class, USER_ID), Conference.class, 42L).getString();
+        try {
+            conferenceApi.getConference(missingKey);
+            fail("NotFoundException expected");
+        }
+        catch (NotFoundException e) {
+            // expected
+        }
+
+        // Saved behind the cache's back, the key stays missing until invalidated
+        ofy().save().entity(new Conference(42L, USER_ID, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP))).now();
+        try {
+            conferenceApi.getConference(missingKey);
+            fail("NotFoundException expected");
+        }
+        catch (NotFoundException e) {
+            // expected
+        }
+        MissingKeyCache.invalidate(missingKey);
+        assertEquals(NAME, conferenceApi.getConference(missingKey).getName());
+    }
+
+    @Test
+    public void testGetAnnouncementVersion() throws Exception {
+        assertNull(conferenceApi.getAnnouncement(null));
+        AnnouncementCache.clearLocal();
+        MemcacheServiceFactory.getMemcacheService().put(Constants.MEMCACHE_ANNOUNCEMENTS_KEY, "Nearly sold out");
+
+        Announcement announcement = conferenceApi.getAnnouncement(null);
+        assertEquals("Nearly sold out", announcement.getMessage());
+        assertTrue(announcement.isModified());
+
+        // A client holding the current version gets a message-less answer
+        Announcement notModified = conferenceApi.getAnnouncement(announcement.getVersion());
+        assertFalse(notModified.isModified());
+        assertNull(notModified.getMessage());
+        assertEquals(announcement.getVersion(), notModified.getVersion());
+    }
+
+    @Test
+    public void testHotKeysOutliveOneOffKeys() throws Exception {
+        for (int i = 0; i < 5000; i++) {
+            CacheStats.record("test.local", "hot", CacheStats.Event.HIT, 0);
+            CacheStats.record("test.local", "cold" + i, CacheStats.Event.MISS, 0);
+        }
+        assertTrue(CacheStats.report().contains("hotKey family=test.local key=hot reads=5000"));
+
+        // Unknown keys are only counted by family
+        for (int i = 0; i < 5000; i++) {
+            MissingKeyCache.markMissing("junk" + i);
+            MissingKeyCache.parse("junk" + i);
+        }
+        assertFalse(CacheStats.report().toString().contains("hotKey family=missingKey.local"));
+        assertTrue(CacheStats.report().contains("hotKey family=test.local key=hot reads=5000"));
+    }
+
+    @Test
+    public void testAnnouncementsSurviveMemcacheFlush() throws Exception {
+        AnnouncementStore.publish("low", "Low", 0);
+        AnnouncementStore.publish("high", "High", 10);
+        assertEquals("High\nLow", conferenceApi.getAnnouncement(null).getMessage());
+
+        // Read through to the datastore once memcache is flushed
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        AnnouncementCache.clearLocal();
+        assertEquals("High\nLow", conferenceApi.getAnnouncement(null).getMessage());
+        assertTrue(CacheStats.report().contains(
+                "cache family=announcement.memcache hits=1 misses=1 sets=3 evictions=0 bytes=27 hitRate=0.500"));
+
+        assertTrue(AnnouncementStore.retract("high"));
+        assertFalse(AnnouncementStore.retract("high"));
+        assertEquals("Low", conferenceApi.getAnnouncement(null).getMessage());
+
+        // A text left by a slower writer is replaced by one loaded after it
+        MemcacheServiceFactory.getMemcacheService().put(Constants.MEMCACHE_ANNOUNCEMENTS_KEY, "High\nLow");
+        AnnouncementStore.publish("high", "Higher", 10);
+        assertEquals("Higher\nLow", MemcacheServiceFactory.getMemcacheService().get(Constants.MEMCACHE_ANNOUNCEMENTS_KEY));
+    }
+
+    @Test
+    public void testNearlySoldOutAnnouncement() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, Conference.NEARLY_SOLD_OUT_SEATS + 1));
+        Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+
+        // The task enqueued by the registration is run by hand
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        assertTrue(NearlySoldOutService.update(conferenceKey));
+        assertFalse(NearlySoldOutService.update(conferenceKey));
+        assertEquals("Oh look! Last chance to attend! The following conferences are nearly sold out: " + NAME,
+                        conferenceApi.getAnnouncement(null).getMessage());
+
+        // The scan finds the same set, its slices are run by hand
+        String scanId = NearlySoldOutService.startScan();
+        assertTrue(NearlySoldOutService.scanSlice(scanId, 0));
+        assertFalse(NearlySoldOutService.scanSlice(scanId, 0));
+        assertEquals("Oh look! Last chance to attend! The following conferences are nearly sold out: " + NAME,
+                        conferenceApi.getAnnouncement(null).getMessage());
+
+        conferenceApi.unregisterFromConference(user, conference.getWebsafeKey());
+        assertTrue(NearlySoldOutService.update(conferenceKey));
+        assertNull(conferenceApi.getAnnouncement(null));
+    }
+
+    @Test
+    public void testNotificationsAreDeliveredAsDigests() throws Exception {
+        InMemoryMailTransport transport = new InMemoryMailTransport();
+        EmailService.setTransport(transport);
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        conferenceApi.createSession(user, new SessionForm(new Date(), SESSION_DURATION, SESSION_HIGHLIGHTS,
+                SESSION_NAME, SESSION_SPEAKER, SESSION_TIME, SESSION_TYPE), conference.getWebsafeKey());
+
+        // The events of both transactions are dispatched in one batch
+        assertEquals(2, Outbox.dispatchBatch());
+        assertEquals(0, Outbox.dispatchBatch());
+
+        // Both notifications of the user go out as one digest
+        BatchReport report = EmailService.deliverBatch();
+        assertEquals(2, report.getNotifications());
+        assertEquals(1, report.getMessages());
+        assertEquals(0, report.getFailed());
+        assertEquals(1, transport.getSent());
+        Message sent = transport.getMessages().get(0);
+        assertEquals("You have 2 new notifications", sent.getSubject());
+        assertEquals(EMAIL, ((InternetAddress) sent.getAllRecipients()[0]).getAddress());
+        assertTrue(((String) sent.getContent()).contains("Name: " + SESSION_NAME));
+        assertEquals(0, EmailService.deliverBatch().getNotifications());
+    }
+
+    @Test
+    public void testFailedOutboxEventIsDispatchedAgain() throws Exception {
+        // An update on a key of the wrong kind fails to apply
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        Key<Conference> wrongKind = Key.create(Key.create(Profile.class, USER_ID).getString());
+        Outbox.record(Outbox.Event.updateNearlySoldOut(wrongKind));
+        assertEquals(1, Outbox.dispatchBatch());
+
+        // Leased again once its retry delay is over, not after the lease
+        assertEquals(0, Outbox.dispatchBatch());
+        Thread.sleep(1100);
+        assertEquals(1, Outbox.dispatchBatch());
+        assertEquals(0, Outbox.dispatchBatch());
+    }
+
+    @Test
+    public void testFailedNotifications() throws Exception {
+        InMemoryMailTransport transport = new InMemoryMailTransport();
+        EmailService.setTransport(transport);
+        conferenceApi.createConference(user, new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        Outbox.dispatchBatch();
+
+        // A transient failure puts the notification back for later
+        transport.fail(EMAIL, new MessagingException("Timeout"));
+        BatchReport report = EmailService.deliverBatch();
+        assertEquals(1, report.getFailed());
+        assertEquals(0, report.getDeadLettered());
+        assertEquals(0, EmailService.deliverBatch().getNotifications());
+
+        // A permanent one is given up on at once
+        conferenceApi.createConference(user, new ConferenceForm(NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        Outbox.dispatchBatch();
+        transport.fail(EMAIL, new SendFailedException("Invalid address", null,
+                        new Address[0], new Address[0], new Address[] { new InternetAddress(EMAIL) }));
+        report = EmailService.deliverBatch();
+        assertEquals(1, report.getDeadLettered());
+        transport.fail(EMAIL, null);
+        assertEquals(0, EmailService.deliverBatch().getNotifications());
+    }
+
+    @Test
+    public void testGetDashboard() throws Exception {
+        AnnouncementStore.publish("test", "Nearly sold out", 0);
+        Dashboard anonymous = conferenceApi.getDashboard(null);
+        assertEquals("Nearly sold out", anonymous.getAnnouncement().getMessage());
+        assertNull(anonymous.getFeaturedSpeaker());
+        assertNull(anonymous.getProfile());
+        assertTrue(anonymous.getConferencesToAttend().isEmpty());
+
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        ProfileContext.begin();
+        ofy().clear();
+        Dashboard dashboard = conferenceApi.getDashboard(user);
+        assertEquals(USER_ID, dashboard.getProfile().getUserId());
+        assertEquals(1, dashboard.getConferencesToAttend().size());
+        assertEquals(NAME, dashboard.getConferencesToAttend().iterator().next().getName());
+
+        // Served by this instance on the next load
+        CacheStats.clear();
+        ProfileContext.begin();
+        dashboard = conferenceApi.getDashboard(user);
+        assertEquals(1, dashboard.getConferencesToAttend().size());
+        assertTrue(CacheStats.report().toString(), CacheStats.report().contains(
+                "cache family=conference.local hits=1 misses=0 sets=0 evictions=0 bytes=0 hitRate=1.000"));
+    }
+
     @Test
     public void testRegistrations() throws Exception {
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
@@ -299,8 +587,78 @@ public class ConferenceApiTest {
         assertFalse("Profile shouldn't have the conferenceId in conferenceIdsToAttend.",
                 profile.getConferenceKeysToAttend().contains(conference.getWebsafeKey()));
     }
+
+    @Test
+    public void testLegacyProfileShrinksOnFirstSave() throws Exception {
+        String websafeConferenceKey = Key.create(Key.create(Profile.class, USER_ID), Conference.class, 1L).getString();
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        Entity legacy = new Entity(Key.create(Profile.class, USER_ID).getRaw());
+        legacy.setProperty("displayName", DISPLAY_NAME);
+        legacy.setProperty("mainEmail", EMAIL);
+        legacy.setProperty("conferenceKeysToAttend", Collections.singletonList(websafeConferenceKey));
+        datastore.put(legacy);
+
+        Profile profile = conferenceApi.saveProfile(user, new ProfileForm("New name", null));
+        assertTrue(profile.isRegisteredForConference(websafeConferenceKey));
+
+        // The lists moved to the memberships, in the same transaction
+        Entity profileEntity = datastore.get(legacy.getKey());
+        assertEquals("New name", profileEntity.getProperty("displayName"));
+        assertFalse(profileEntity.hasProperty("conferenceKeysToAttend"));
+        ofy().clear();
+        ProfileMemberships memberships = ofy().load()
+                .key(ProfileMemberships.keyOf(Key.create(Profile.class, USER_ID))).now();
+        assertEquals(Collections.singletonList(websafeConferenceKey), memberships.getConferenceKeysToAttend());
+    }
+
+    @Test
+    public void testRegistrationKeepsProfileEntitySmall() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date startDate = dateFormat.parse("03/25/2014");
+        Date endDate = dateFormat.parse("03/26/2014");
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, startDate, endDate, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+
+        // The key lists are stored in the memberships, not in the Profile entity.
+        Entity profileEntity = DatastoreServiceFactory.getDatastoreService()
+                .get(Key.create(Profile.class, USER_ID).getRaw());
+        assertFalse(profileEntity.hasProperty("conferenceKeysToAttend"));
+        ProfileMemberships memberships = ofy().load()
+                .key(ProfileMemberships.keyOf(Key.create(Profile.class, USER_ID))).now();
+        assertEquals(1, memberships.getConferenceKeysToAttend().size());
+
+        // Saving an unchanged Profile is a no-op, a changed one keeps the lists.
+        conferenceApi.saveProfile(user, new ProfileForm(null, null));
+        Profile profile = conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, null));
+        assertEquals(DISPLAY_NAME, profile.getDisplayName());
+        assertTrue(profile.isRegisteredForConference(conference.getWebsafeKey()));
+    }
     
 
+    @Test
+    public void testProfileLoadedOncePerRequest() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date startDate = dateFormat.parse("03/25/2014");
+        Date endDate = dateFormat.parse("03/26/2014");
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, startDate, endDate, CAP);
+        Conference conference = conferenceApi.createConference(user, conferenceForm);
+
+        // A new request registering to the conference loads the Profile once.
+        ProfileContext context = ProfileContext.begin();
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+        assertEquals(1, context.getDatastoreLoads());
+
+        // Outside the transaction the Profile is loaded once more, then memoized.
+        conferenceApi.getProfile(user);
+        Profile profile = conferenceApi.getProfile(user);
+        assertEquals(2, context.getDatastoreLoads());
+        assertEquals(1, context.getMemoHits());
+        assertTrue(profile.isRegisteredForConference(conference.getWebsafeKey()));
+    }
+
     @Test
     public void testCreateSession() throws Exception {
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
@@ -328,6 +686,70 @@ public class ConferenceApiTest {
     }
     
 
+    @Test
+    public void testMapperResavesSessions() throws Exception {
+        Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, null, null, CAP));
+        Session session = conferenceApi.createSession(user, new SessionForm(new Date(), SESSION_DURATION,
+                SESSION_HIGHLIGHTS, SESSION_NAME, SESSION_SPEAKER, SESSION_TIME, SESSION_TYPE), conference.getWebsafeKey());
+        // A get applies the commit, so the query of the mapper sees the session
+        DatastoreServiceFactory.getDatastoreService().get(Key.create(session.getWebsafeKey()).getRaw());
+
+        // The shards are run by hand, each range fits in one slice
+        String jobId = MapperService.start("resaveSessions", 4);
+        int shards = ofy().load().key(MapperJob.key(jobId)).now().getShards();
+        for (int shard = 0; shard < shards; shard++) {
+            assertTrue(MapperService.runSlice(jobId, shard, 0));
+            assertFalse(MapperService.runSlice(jobId, shard, 0));
+        }
+        assertTrue(MapperService.progress(jobId).get(0).endsWith("done=" + shards + " mapped=1 saved=1"));
+        assertEquals(0, MapperService.resume(jobId));
+    }
+
+    @Test
+    public void testMapperResumesSlicesAcrossShards() throws Exception {
+        Date startDate = new SimpleDateFormat("MM/dd/yyyy").parse("03/25/2014");
+        List<com.google.appengine.api.datastore.Key> keys = new ArrayList<>();
+        for (int i = 0; i < 50; i++) {
+            Conference conference = conferenceApi.createConference(user, new ConferenceForm(
+                    NAME + i, DESCRIPTION, null, CITY, startDate, startDate, CAP));
+            keys.add(Key.create(conference.getWebsafeKey()).getRaw());
+        }
+        // Clear the month of every conference, the gets apply the commits
+        DatastoreService datastore = DatastoreServiceFactory.getDatastoreService();
+        for (com.google.appengine.api.datastore.Key key : keys) {
+            Entity entity = datastore.get(key);
+            entity.setProperty("month", 0);
+            datastore.put(entity);
+            datastore.get(key);
+        }
+        ofy().clear();
+
+        String jobId = MapperService.start("recomputeConferenceMonth", 4, 7);
+        int shards = ofy().load().key(MapperJob.key(jobId)).now().getShards();
+        assertTrue(shards > 1);
+        int slices = 0;
+        for (int shard = 0; shard < shards; shard++) {
+            int slice = 0;
+            while (!MapperService.runSlice(jobId, shard, slice)) {
+                // A slice run twice is only checkpointed once
+                assertFalse(MapperService.runSlice(jobId, shard, slice));
+                slice++;
+                assertTrue(slice < keys.size());
+            }
+            slices += slice + 1;
+        }
+        assertTrue(slices > shards);
+
+        // Every conference mapped once: none skipped, as all are fixed, so
+        // none mapped twice either
+        assertTrue(MapperService.progress(jobId).get(0).endsWith(
+                "done=" + shards + " mapped=" + keys.size() + " saved=" + keys.size()));
+        for (Entity entity : datastore.get(keys).values()) {
+            assertEquals((long) MONTH, entity.getProperty("month"));
+        }
+    }
+
     @Test
     public void testGetConferenceSessions() throws Exception {
         DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
@@ -350,4 +772,169 @@ public class ConferenceApiTest {
         assertTrue("The result should contain a conference",
                         sessionsCreated.contains(session));
     }
+
+    @Test
+    public void testSessionListOverMemcacheLimit() throws Exception {
+        Conference conference = conferenceApi.createConference(user,
+                new ConferenceForm(NAME, DESCRIPTION, null, CITY, new Date(), new Date(), CAP));
+        Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+        char[] highlights = new char[300 * 1024];
+        Arrays.fill(highlights, 'x');
+        for (int i = 0; i < 4; i++) {
+            ofy().save().entity(new Session(1001L + i, conferenceKey, new SessionForm(new Date(), SESSION_DURATION,
+                    new String(highlights), SESSION_NAME, SESSION_SPEAKER, SESSION_TIME, SESSION_TYPE))).now();
+        }
+
+        // Served by the query, and not cached
+        assertEquals(4, SessionListCache.get(conferenceKey).size());
+        assertEquals(4, SessionListCache.get(conferenceKey).size());
+        assertTrue(CacheStats.report().toString(), CacheStats.report().contains(
+                "cache family=sessions.memcache hits=0 misses=2 sets=0 evictions=0 bytes=0 hitRate=0.000"));
+    }
+
+    @Test
+    public void testSessionListCachedUntilCreateSession() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date sessionDate = dateFormat.parse("03/25/2014");
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, sessionDate, sessionDate, CAP);
+        SessionForm sessionForm = new SessionForm(sessionDate, SESSION_DURATION, SESSION_HIGHLIGHTS, SESSION_NAME, SESSION_SPEAKER,SESSION_TIME, SESSION_TYPE);
+        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+        ofy().save().entity(new Session(1001L, conferenceKey, sessionForm)).now();
+
+        // The list is cached: a session saved behind its back is not seen
+        assertEquals(1, conferenceApi.getConferenceSessions(conference.getWebsafeKey()).size());
+        SessionForm otherForm = new SessionForm(sessionDate, SESSION_DURATION, SESSION_HIGHLIGHTS, SESSION_NAME, "Other Speaker", SESSION_TIME, "Workshop");
+        ofy().save().entity(new Session(1002L, conferenceKey, otherForm)).now();
+        assertEquals(1, conferenceApi.getConferenceSessions(conference.getWebsafeKey()).size());
+        assertEquals(SESSION_NAME, conferenceApi.getConferenceSessionsBySpeaker(conference.getWebsafeKey(), SESSION_SPEAKER).get(0).getName());
+
+        // createSession drops the list
+        conferenceApi.createSession(user, otherForm, conference.getWebsafeKey());
+        assertEquals(3, conferenceApi.getConferenceSessions(conference.getWebsafeKey()).size());
+        assertEquals(2, conferenceApi.getConferenceSessionsByType(conference.getWebsafeKey(), "Workshop").size());
+        assertTrue(conferenceApi.getConferenceSessionsByType("junk", "Workshop").isEmpty());
+    }
+
+    @Test
+    public void testGetSessionsBySpeaker() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date firstDate = dateFormat.parse("03/25/2014");
+        Date secondDate = dateFormat.parse("04/25/2014");
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, firstDate, secondDate, CAP);
+        Conference first = conferenceApi.createConference(user, conferenceForm);
+        Conference second = conferenceApi.createConference(user, conferenceForm);
+        conferenceApi.createSession(user, new SessionForm(secondDate, SESSION_DURATION, SESSION_HIGHLIGHTS, "Later", SESSION_SPEAKER, SESSION_TIME, SESSION_TYPE), first.getWebsafeKey());
+        conferenceApi.createSession(user, new SessionForm(firstDate, SESSION_DURATION, SESSION_HIGHLIGHTS, "Earlier", SESSION_SPEAKER, SESSION_TIME, SESSION_TYPE), second.getWebsafeKey());
+        conferenceApi.createSession(user, new SessionForm(firstDate, SESSION_DURATION, SESSION_HIGHLIGHTS, "Other", "Other Speaker", SESSION_TIME, SESSION_TYPE), second.getWebsafeKey());
+
+        List<Session> sessions = conferenceApi.getSessionsBySpeaker(SESSION_SPEAKER.toUpperCase());
+        assertEquals(2, sessions.size());
+        assertEquals("Earlier", sessions.get(0).getName());
+        assertEquals("Later", sessions.get(1).getName());
+        assertTrue(conferenceApi.getSessionsBySpeaker("Nobody").isEmpty());
+    }
+
+    @Test
+    public void testWishlist() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date sessionDate = dateFormat.parse("03/25/2014");
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, sessionDate, sessionDate, CAP);
+        SessionForm sessionForm = new SessionForm(sessionDate, SESSION_DURATION, SESSION_HIGHLIGHTS, SESSION_NAME, SESSION_SPEAKER,SESSION_TIME, SESSION_TYPE);
+        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        Session session = conferenceApi.createSession(user, sessionForm, conference.getWebsafeKey());
+        String websafeSessionKey = session.getWebsafeKey();
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+
+        // Adding writes a WishlistEntry, not the Profile's lists
+        assertTrue(conferenceApi.addSessionToWishlist(user, websafeSessionKey).getResult());
+        Key<Profile> profileKey = Key.create(Profile.class, USER_ID);
+        assertNotNull(ofy().load().key(WishlistEntry.keyOf(profileKey, websafeSessionKey)).now());
+        Collection<Session> wishlist = conferenceApi.getSessionsInWishlist(user);
+        assertEquals(1, wishlist.size());
+
+        // Removing deletes it
+        assertTrue(conferenceApi.deleteSessionFromWishlist(user, websafeSessionKey).getResult());
+        assertTrue(conferenceApi.getSessionsInWishlist(user).isEmpty());
+    }
+
+    @Test
+    public void testMigrateLegacyWishlist() throws Exception {
+        conferenceApi.saveProfile(user, new ProfileForm(DISPLAY_NAME, TEE_SHIRT_SIZE));
+        Key<Profile> profileKey = Key.create(Profile.class, USER_ID);
+        String websafeSessionKey = Key.create(Key.create(profileKey, Conference.class, 1L), Session.class, 2L).getString();
+        ofy().save().entity(new ProfileMemberships(profileKey, Collections.<String>emptyList(),
+                Collections.singletonList(websafeSessionKey))).now();
+        ofy().clear();
+        ProfileContext.begin();
+
+        // Legacy keys are still read before migration
+        Profile profile = conferenceApi.getProfile(user);
+        assertEquals(Collections.singletonList(websafeSessionKey), profile.getSessionsInWhishlist());
+
+        assertEquals(1, WishlistService.migrate(USER_ID));
+        assertEquals(0, WishlistService.migrate(USER_ID));
+        ProfileMemberships memberships = ofy().load().key(ProfileMemberships.keyOf(profileKey)).now();
+        assertTrue(memberships.getSessionKeysWishlist().isEmpty());
+        assertNotNull(ofy().load().key(WishlistEntry.keyOf(profileKey, websafeSessionKey)).now());
+    }
+
+    @Test
+    public void testUpdateWishlist() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date sessionDate = dateFormat.parse("03/25/2014");
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, sessionDate, sessionDate, CAP);
+        SessionForm sessionForm = new SessionForm(sessionDate, SESSION_DURATION, SESSION_HIGHLIGHTS, SESSION_NAME, SESSION_SPEAKER,SESSION_TIME, SESSION_TYPE);
+        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        String first = conferenceApi.createSession(user, sessionForm, conference.getWebsafeKey()).getWebsafeKey();
+        String second = conferenceApi.createSession(user, sessionForm, conference.getWebsafeKey()).getWebsafeKey();
+        conferenceApi.registerForConference(user, conference.getWebsafeKey());
+
+        List<WishlistItemResult> results = conferenceApi.updateWishlist(user,
+                new WishlistForm(Arrays.asList(first, second, "bogus"), null));
+        assertEquals(3, results.size());
+        assertTrue(results.get(0).getResult());
+        assertTrue(results.get(1).getResult());
+        assertFalse(results.get(2).getResult());
+        assertEquals(2, conferenceApi.getSessionsInWishlist(user).size());
+
+        results = conferenceApi.updateWishlist(user,
+                new WishlistForm(Arrays.asList(first), Arrays.asList(second)));
+        assertEquals("Session already in Wishlist", results.get(0).getReason());
+        assertTrue(results.get(1).getResult());
+        assertEquals(1, conferenceApi.getSessionsInWishlist(user).size());
+    }
+
+    @Test
+    public void testFeaturedSpeakerSurvivesMemcacheFlush() throws Exception {
+        DateFormat dateFormat = new SimpleDateFormat("MM/dd/yyyy");
+        Date sessionDate = dateFormat.parse("03/25/2014");
+        ConferenceForm conferenceForm = new ConferenceForm(
+                NAME, DESCRIPTION, null, CITY, sessionDate, sessionDate, CAP);
+        SessionForm sessionForm = new SessionForm(sessionDate, SESSION_DURATION, SESSION_HIGHLIGHTS, SESSION_NAME, SESSION_SPEAKER,SESSION_TIME, SESSION_TYPE);
+        Conference conference = conferenceApi.createConference(user, conferenceForm);
+        conferenceApi.createSession(user, sessionForm, conference.getWebsafeKey());
+        conferenceApi.createSession(user, sessionForm, conference.getWebsafeKey());
+
+        // Decided by the task enqueued with the session, not by createSession
+        assertNull(conferenceApi.getFeaturedSpeaker(conference.getWebsafeKey(), null));
+        Key<Conference> conferenceKey = Key.create(conference.getWebsafeKey());
+        assertEquals(2, SpeakerCountService.get(conferenceKey, SESSION_SPEAKER));
+        assertTrue(FeaturedSpeakerService.check(conferenceKey, SESSION_SPEAKER));
+
+        MemcacheServiceFactory.getMemcacheService().clearAll();
+        ofy().clear();
+        Announcement announcement = conferenceApi.getFeaturedSpeaker(conference.getWebsafeKey(), null);
+        assertTrue(announcement.getMessage().contains(SESSION_SPEAKER));
+
+        // The latest featured speaker is read back from the datastore too
+        DatastoreServiceFactory.getDatastoreService().get(FeaturedSpeaker.keyOf(conferenceKey).getRaw());
+        AnnouncementCache.clearLocal();
+        announcement = conferenceApi.getFeaturedSpeaker(null, null);
+        assertTrue(announcement.getMessage().contains(SESSION_SPEAKER));
+    }
 }